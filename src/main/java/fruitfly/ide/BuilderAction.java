@@ -13,8 +13,9 @@ import org.jetbrains.annotations.NotNull;
 
 import static com.intellij.openapi.command.WriteCommandAction.runWriteCommandAction;
 import static com.intellij.psi.util.PsiTreeUtil.getParentOfType;
-import static fruitfly.ide.ClassMemberChooser.chooseFieldNames;
+import static fruitfly.ide.ClassMemberChooser.chooseBuilder;
 import static fruitfly.psi.BuilderGenerator.generateBuilderPattern;
+import static fruitfly.psi.BuilderGenerator.removeBuilderClasses;
 
 /**
  * Defines the `Fruitfly Builder` item in the generate menu.
@@ -76,10 +77,18 @@ public class BuilderAction extends AnAction {
         // Если у вас RecordMemberChooser жестко завязан на PsiRecordComponent,
         // вам нужно будет его немного переписать, чтобы он принимал PsiClass
         // и извлекал поля (getFields()) или компоненты (getRecordComponents())
-        final var fields = chooseFieldNames(targetClass);
+        final var choice = chooseBuilder(targetClass);
+        if (choice == null) {
+            // cancelled, leave any existing builder alone
+            return;
+        }
 
         runWriteCommandAction(project, () -> {
-            generateBuilderPattern(targetClass, fields);
+            if (choice.switchesLayout()) {
+                removeBuilderClasses(targetClass);
+            }
+            generateBuilderPattern(
+                targetClass, choice.fieldNames(), choice.options());
         });
     }
 
@@ -0,0 +1,220 @@
+package fruitfly.ide;
+
+import com.intellij.codeInspection.AbstractBaseJavaLocalInspectionTool;
+import com.intellij.codeInspection.LocalQuickFix;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.codeInspection.ProblemsHolder;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.JavaElementVisitor;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiLambdaExpression;
+import com.intellij.psi.PsiLoopStatement;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethodCallExpression;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.codeStyle.JavaCodeStyleManager;
+import com.siyeh.ig.psiutils.SideEffectChecker;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
+import static fruitfly.psi.BuilderGenerator.findBuiltRecord;
+
+/**
+ * Flags `Foo.Builder.foo().a(x).b(y).build()` chains that set every
+ * component of the record, inside loops, lambdas and stream pipelines.
+ * <p>
+ * Escape analysis doesn't reliably remove the builder allocation in hot
+ * code; when every component is set unconditionally in one chain, the
+ * canonical constructor does the same job without the intermediate object.
+ * The quick-fix rewrites the chain into that constructor call, ordering the
+ * arguments by the record components.
+ */
+public class BuilderInLoopInspection extends AbstractBaseJavaLocalInspectionTool {
+
+    @Override
+    public @NotNull PsiElementVisitor buildVisitor(
+        @NotNull ProblemsHolder holder,
+        boolean isOnTheFly
+    ) {
+        return new JavaElementVisitor() {
+            @Override
+            public void visitMethodCallExpression(
+                @NotNull PsiMethodCallExpression expression
+            ) {
+                super.visitMethodCallExpression(expression);
+
+                final var chain = BuilderChain.match(expression);
+                if (chain == null || !chain.canReorder() ||
+                    !isInLoopOrLambda(expression)
+                ) {
+                    return;
+                }
+
+                holder.registerProblem(
+                    expression,
+                    "Builder for '" + chain.recordClass().getName() +
+                        "' allocated in a loop or lambda, can be replaced " +
+                        "with the canonical constructor",
+                    new ReplaceWithConstructorFix());
+            }
+        };
+    }
+
+    /**
+     * A complete `factory().setter(..)...build()` chain on a Fruitfly
+     * builder, with the argument expression for each record component and
+     * the order the setters are called in.
+     */
+    private record BuilderChain(
+        PsiClass recordClass,
+        Map<String, PsiExpression> arguments,
+        List<String> setterOrder
+    ) {
+
+        /**
+         * @return null unless `buildCall` is the `build()` at the end of a
+         * chain that starts with the builder's static factory method and
+         * sets every component exactly once
+         */
+        static BuilderChain match(PsiMethodCallExpression buildCall) {
+            final var buildExpression = buildCall.getMethodExpression();
+            if (!"build".equals(buildExpression.getReferenceName()) ||
+                !buildCall.getArgumentList().isEmpty()
+            ) {
+                return null;
+            }
+
+            final var arguments = new HashMap<String, PsiExpression>();
+            final var setterOrder = new ArrayList<String>();
+            var qualifier = buildExpression.getQualifierExpression();
+            while (qualifier instanceof PsiMethodCallExpression call) {
+                final var callArguments = call.getArgumentList().getExpressions();
+                final var method = call.resolveMethod();
+                if (method == null) {
+                    return null;
+                }
+
+                if (method.hasModifierProperty(PsiModifier.STATIC)) {
+                    // the static factory method that starts the chain
+                    if (callArguments.length != 0) {
+                        return null;
+                    }
+                    return matchRecord(
+                        method.getContainingClass(), arguments, setterOrder);
+                }
+
+                if (callArguments.length != 1 ||
+                    arguments.put(method.getName(), callArguments[0]) != null
+                ) {
+                    // not a setter, or a component set twice
+                    return null;
+                }
+                setterOrder.add(0, method.getName());
+                qualifier = call.getMethodExpression().getQualifierExpression();
+            }
+
+            return null;
+        }
+
+        private static BuilderChain matchRecord(
+            PsiClass builderClass,
+            Map<String, PsiExpression> arguments,
+            List<String> setterOrder
+        ) {
+            if (builderClass == null ||
+                !(findBuiltRecord(builderClass) instanceof PsiClass recordClass) ||
+                !recordClass.isRecord()
+            ) {
+                return null;
+            }
+
+            final var componentNames = mapRecordComponentNames(recordClass);
+            if (!arguments.keySet().equals(Set.copyOf(componentNames))) {
+                return null;
+            }
+
+            return new BuilderChain(recordClass, arguments, setterOrder);
+        }
+
+        /**
+         * The setters evaluate their arguments in chain order, the
+         * constructor in component order - only safe to reorder when that
+         * can't be observed.
+         */
+        boolean canReorder() {
+            return setterOrder.equals(mapRecordComponentNames(recordClass)) ||
+                arguments.values().stream()
+                    .noneMatch(SideEffectChecker::mayHaveSideEffects);
+        }
+
+        String toConstructorCall() {
+            final var parameters = new StringJoiner(", ");
+            for (final var name : mapRecordComponentNames(recordClass)) {
+                parameters.add(arguments.get(name).getText());
+            }
+
+            return "new " + recordClass.getQualifiedName() +
+                (recordClass.hasTypeParameters() ? "<>" : "") +
+                "(" + parameters + ")";
+        }
+    }
+
+    /**
+     * Loops, and lambdas (which is where stream pipelines put their work),
+     * up to the enclosing member.
+     */
+    private static boolean isInLoopOrLambda(PsiElement element) {
+        for (var parent = element.getParent();
+             parent != null && !(parent instanceof PsiMember) && !(parent instanceof PsiFile);
+             parent = parent.getParent()
+        ) {
+            if (parent instanceof PsiLoopStatement ||
+                parent instanceof PsiLambdaExpression
+            ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class ReplaceWithConstructorFix implements LocalQuickFix {
+
+        @Override
+        public @NotNull String getFamilyName() {
+            return "Replace builder with canonical constructor";
+        }
+
+        @Override
+        public void applyFix(
+            @NotNull Project project,
+            @NotNull ProblemDescriptor descriptor
+        ) {
+            if (!(descriptor.getPsiElement() instanceof PsiMethodCallExpression buildCall)) {
+                return;
+            }
+
+            final var chain = BuilderChain.match(buildCall);
+            if (chain == null || !chain.canReorder()) {
+                return;
+            }
+
+            final var constructorCall = JavaPsiFacade.getElementFactory(project)
+                .createExpressionFromText(chain.toConstructorCall(), buildCall);
+            final var replaced = buildCall.replace(constructorCall);
+            JavaCodeStyleManager.getInstance(project).shortenClassReferences(replaced);
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+package fruitfly.ide;
+
+import com.intellij.codeInsight.intention.PsiElementBaseIntentionAction;
+import com.intellij.codeInsight.intention.preview.IntentionPreviewInfo;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiCodeBlock;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.IncorrectOperationException;
+import fruitfly.psi.BuilderOptions;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.intellij.psi.util.PsiTreeUtil.getParentOfType;
+import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
+import static fruitfly.psi.BuilderGenerator.createBuilderClass;
+import static fruitfly.psi.BuilderGenerator.createBuilderClassFromText;
+import static fruitfly.psi.BuilderGenerator.createSiblingBuilderText;
+import static fruitfly.psi.BuilderGenerator.detectOptions;
+import static fruitfly.psi.BuilderGenerator.findBuilderClass;
+import static fruitfly.psi.BuilderGenerator.insertBuilderClass;
+import static fruitfly.psi.BuilderGenerator.mapNamesToFields;
+import static fruitfly.psi.BuilderGenerator.mapSiblingBuilderName;
+import static fruitfly.psi.BuilderGenerator.writeBuilderClass;
+
+/**
+ * Alt+Enter alternative to {@link BuilderAction}: generates a builder for
+ * all components without the chooser dialog, so the result can be shown in
+ * the intention preview before anything is written.
+ * <p>
+ * The platform computes the preview on a non-physical copy of the file in a
+ * background read action.  The builder created for the preview is kept and
+ * re-used when the intention is applied, as long as the record hasn't
+ * changed in between.
+ */
+public class BuilderIntention extends PsiElementBaseIntentionAction {
+
+    /**
+     * Builder generated for the preview.  The intention is a single instance
+     * for all projects and editors, so it's keyed by the file, the record's
+     * position in it and the document's modification stamp: a preview of an
+     * identical record elsewhere, or of this one before an edit, isn't used.
+     */
+    private record Precomputed(
+        VirtualFile file,
+        int recordOffset,
+        long modificationStamp,
+        String builderText,
+        BuilderOptions options
+    ) {
+
+        boolean matches(Precomputed other) {
+            return file.equals(other.file()) &&
+                recordOffset == other.recordOffset() &&
+                modificationStamp == other.modificationStamp();
+        }
+
+    }
+
+    private final AtomicReference<Precomputed> precomputed =
+        new AtomicReference<>();
+
+    @Override
+    public @NotNull String getFamilyName() {
+        return "Generate Fruitfly builder";
+    }
+
+    @Override
+    public boolean isAvailable(
+        @NotNull Project project,
+        Editor editor,
+        @NotNull PsiElement element
+    ) {
+        final var recordClass = findRecord(element);
+        if (recordClass == null) {
+            return false;
+        }
+
+        setText(findBuilderClass(recordClass) == null
+                ? "Generate Fruitfly builder"
+                : "Regenerate Fruitfly builder");
+        return true;
+    }
+
+    @Override
+    public void invoke(
+        @NotNull Project project,
+        Editor editor,
+        @NotNull PsiElement element
+    ) throws IncorrectOperationException {
+        final var recordClass = findRecord(element);
+        if (recordClass == null) {
+            return;
+        }
+
+        final var previewed = precomputed.getAndSet(null);
+        final var current = createKey(recordClass, null, null);
+        if (previewed != null && current != null && previewed.matches(current)) {
+            writeBuilderClass(
+                recordClass,
+                createBuilderClassFromText(recordClass, previewed.builderText()),
+                previewed.options());
+            return;
+        }
+
+        final var options = detectRecordOptions(recordClass);
+        writeBuilderClass(
+            recordClass,
+            createRecordBuilderClass(recordClass, options),
+            options);
+    }
+
+    @Override
+    public @NotNull IntentionPreviewInfo generatePreview(
+        @NotNull Project project,
+        @NotNull Editor editor,
+        @NotNull PsiFile file
+    ) {
+        final var recordClass = findRecord(
+            file.findElementAt(editor.getCaretModel().getOffset()));
+        if (recordClass == null) {
+            return IntentionPreviewInfo.EMPTY;
+        }
+
+        final var options = detectRecordOptions(recordClass);
+        final var builderClass = createRecordBuilderClass(recordClass, options);
+        precomputed.set(createKey(recordClass, builderClass.getText(), options));
+
+        if (options.siblingFile()) {
+            // the record doesn't change, show the sibling file instead
+            final var existingBuilder = findBuilderClass(recordClass);
+            return new IntentionPreviewInfo.CustomDiff(
+                JavaFileType.INSTANCE,
+                mapSiblingBuilderName(recordClass) + ".java",
+                existingBuilder == null
+                ? ""
+                : existingBuilder.getContainingFile().getText(),
+                createSiblingBuilderText(recordClass, builderClass));
+        }
+
+        // `file` is the non-physical preview copy, safe to modify
+        insertBuilderClass(recordClass, builderClass);
+        return IntentionPreviewInfo.DIFF;
+    }
+
+    /**
+     * Works for both the preview copy and the physical file: the copy's
+     * original file is the physical one, and they share the document.
+     *
+     * @return null when the record isn't in a file with a document
+     */
+    private static Precomputed createKey(
+        PsiClass recordClass,
+        String builderText,
+        BuilderOptions options
+    ) {
+        final var originalFile = recordClass.getContainingFile().getOriginalFile();
+        final var virtualFile = originalFile.getVirtualFile();
+        final var document = PsiDocumentManager.getInstance(recordClass.getProject())
+            .getDocument(originalFile);
+        if (virtualFile == null || document == null) {
+            return null;
+        }
+
+        return new Precomputed(
+            virtualFile,
+            recordClass.getTextRange().getStartOffset(),
+            document.getModificationStamp(),
+            builderText,
+            options);
+    }
+
+    /**
+     * Keeps the options of an existing builder, including its layout.
+     */
+    private static BuilderOptions detectRecordOptions(PsiClass recordClass) {
+        final var existingBuilder = findBuilderClass(recordClass);
+        return existingBuilder == null
+               ? BuilderOptions.defaults()
+               : detectOptions(existingBuilder);
+    }
+
+    /**
+     * Uses all components.
+     */
+    private static PsiClass createRecordBuilderClass(
+        PsiClass recordClass,
+        BuilderOptions options
+    ) {
+        return createBuilderClass(
+            recordClass,
+            mapNamesToFields(recordClass, mapRecordComponentNames(recordClass)),
+            options);
+    }
+
+    /**
+     * The record the caret is in, as long as the caret isn't inside a method
+     * body or some nested class (like an existing Builder).
+     */
+    private static PsiClass findRecord(PsiElement element) {
+        if (element == null) {
+            return null;
+        }
+
+        final var psiClass = getParentOfType(element, PsiClass.class, false);
+        if (psiClass == null || !psiClass.isRecord()) {
+            return null;
+        }
+
+        if (getParentOfType(element, PsiCodeBlock.class, false, PsiClass.class) != null) {
+            return null;
+        }
+
+        return psiClass;
+    }
+
+}
@@ -0,0 +1,373 @@
+package fruitfly.ide;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.command.undo.UndoManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.ui.update.MergingUpdateQueue;
+import com.intellij.util.ui.update.Update;
+import org.jetbrains.annotations.NotNull;
+import fruitfly.psi.BuilderOptions;
+import org.jetbrains.annotations.TestOnly;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static fruitfly.psi.BuilderGenerator.createBuilderClass;
+import static fruitfly.psi.BuilderGenerator.createBuilderClassFromText;
+import static fruitfly.psi.BuilderGenerator.detectOptions;
+import static fruitfly.psi.BuilderGenerator.findBuilderClass;
+import static fruitfly.psi.BuilderGenerator.isBuilderStale;
+import static fruitfly.psi.BuilderGenerator.mapBuilderComponentNames;
+import static fruitfly.psi.BuilderGenerator.mapNamesToFields;
+import static fruitfly.psi.BuilderGenerator.writeBuilderClass;
+
+/**
+ * Opt-in background regeneration of Fruitfly builders when the components
+ * of their record change.
+ * <p>
+ * PSI changes (typing, refactorings) and VFS content changes (VCS updates,
+ * branch switches) only mark the file as dirty; the actual work is
+ * debounced so a burst of edits collapses into one pass.  Staleness, and
+ * the text of each regenerated builder, are worked out in a non-blocking
+ * read action, which is cancelled and restarted by any write action, so it
+ * never holds up typing.  The regeneration itself is a short write command
+ * that only parses and inserts that text, and bails out if the file changed
+ * since it was analysed.
+ */
+@Service(Service.Level.PROJECT)
+public final class BuilderSyncService implements Disposable {
+
+    private static final Logger log = Logger.getInstance(BuilderSyncService.class);
+
+    public static final String ENABLED_KEY = "fruitfly.builderSync";
+
+    private static final int DEBOUNCE_MILLIS = 750;
+
+    private final Project project;
+
+    private final Set<VirtualFile> dirtyFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * document modification stamp of files right after an undo / redo, so
+     * undoing a sync isn't immediately redone by the sync
+     */
+    private final Map<VirtualFile, Long> undoneFiles = new ConcurrentHashMap<>();
+
+    private final MergingUpdateQueue queue;
+
+    /**
+     * set while we're writing the regenerated builders, so we don't react
+     * to our own PSI changes
+     */
+    private volatile boolean syncing;
+
+    public BuilderSyncService(Project project) {
+        this.project = project;
+
+        this.queue = new MergingUpdateQueue(
+            "Fruitfly builder sync",
+            DEBOUNCE_MILLIS,
+            true, // isActive
+            null, // modalityStateComponent
+            this, // parent
+            null, // activationComponent
+            false // executeInDispatchThread
+        );
+        // debounce rather than throttle: every new edit pushes the sync back
+        this.queue.setRestartTimerOnAdd(true);
+
+        PsiManager.getInstance(project).addPsiTreeChangeListener(
+            new PsiTreeChangeAdapter() {
+                @Override
+                public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+                    markDirty(event);
+                }
+
+                @Override
+                public void childAdded(@NotNull PsiTreeChangeEvent event) {
+                    markDirty(event);
+                }
+
+                @Override
+                public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+                    markDirty(event);
+                }
+
+                @Override
+                public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+                    markDirty(event);
+                }
+            },
+            this);
+
+        /* PSI events for an undo arrive when the document is committed, which
+          can be after the undo has finished - remember which document state
+          the undo produced instead */
+        EditorFactory.getInstance().getEventMulticaster().addDocumentListener(
+            new DocumentListener() {
+                @Override
+                public void documentChanged(@NotNull DocumentEvent event) {
+                    if (!UndoManager.getInstance(project).isUndoOrRedoInProgress()) {
+                        return;
+                    }
+                    final var file = FileDocumentManager.getInstance()
+                        .getFile(event.getDocument());
+                    if (file != null) {
+                        undoneFiles.put(
+                            file, event.getDocument().getModificationStamp());
+                    }
+                }
+            },
+            this);
+
+        project.getMessageBus().connect(this).subscribe(
+            VirtualFileManager.VFS_CHANGES,
+            new BulkFileListener() {
+                @Override
+                public void after(@NotNull List<? extends VFileEvent> events) {
+                    for (final var event : events) {
+                        if (event instanceof VFileContentChangeEvent) {
+                            markDirty(event.getFile());
+                        }
+                    }
+                }
+            });
+    }
+
+    public static BuilderSyncService getInstance(Project project) {
+        return project.getService(BuilderSyncService.class);
+    }
+
+    public static boolean isEnabled(Project project) {
+        return PropertiesComponent.getInstance(project).getBoolean(ENABLED_KEY);
+    }
+
+    public static void setEnabled(Project project, boolean enabled) {
+        PropertiesComponent.getInstance(project).setValue(ENABLED_KEY, enabled);
+        if (enabled) {
+            // instantiating the service is what registers the listeners
+            getInstance(project);
+        }
+    }
+
+    private void markDirty(PsiTreeChangeEvent event) {
+        if (syncing) {
+            return;
+        }
+
+        final var file = event.getFile();
+        if (file instanceof PsiJavaFile && file.isPhysical()) {
+            markDirty(file.getVirtualFile());
+        }
+    }
+
+    private void markDirty(VirtualFile file) {
+        if (file == null || !"java".equals(file.getExtension()) ||
+            project.isDisposed() || !isEnabled(project)
+        ) {
+            return;
+        }
+
+        if (!ProjectFileIndex.getInstance(project).isInSourceContent(file)) {
+            return;
+        }
+
+        // the user undid (or redid) something, possibly our sync: leave the
+        // file alone until they edit it again
+        final var undoneStamp = undoneFiles.get(file);
+        if (undoneStamp != null) {
+            final var document = FileDocumentManager.getInstance().getCachedDocument(file);
+            if (document != null && document.getModificationStamp() == undoneStamp) {
+                return;
+            }
+            undoneFiles.remove(file);
+        }
+
+        dirtyFiles.add(file);
+        queue.queue(Update.create(this, this::syncDirtyFiles));
+    }
+
+    private void syncDirtyFiles() {
+        for (final var file : List.copyOf(dirtyFiles)) {
+            dirtyFiles.remove(file);
+            scheduleSync(file);
+        }
+    }
+
+    private void scheduleSync(VirtualFile file) {
+        ReadAction.nonBlocking(() -> findStaleRecords(file))
+            .inSmartMode(project)
+            .withDocumentsCommitted(project)
+            .coalesceBy(this, file)
+            .expireWith(this)
+            .finishOnUiThread(ModalityState.nonModal(), this::regenerate)
+            .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    /**
+     * A record whose builder needs regenerating, with the builder already
+     * generated - like {@link BuilderIntention}'s preview - so the write
+     * command doesn't have to.
+     */
+    private record StaleRecord(
+        SmartPsiElementPointer<PsiClass> recordPointer,
+        String builderText,
+        BuilderOptions options
+    ) { }
+
+    /**
+     * The result of the background pass: which records in which file need
+     * their builder regenerated, and what the file looked like at the time.
+     */
+    private record SyncPlan(
+        VirtualFile file,
+        long modificationStamp,
+        List<StaleRecord> staleRecords
+    ) { }
+
+    private SyncPlan findStaleRecords(VirtualFile file) {
+        if (!file.isValid()) {
+            return null;
+        }
+
+        final var psiFile = PsiManager.getInstance(project).findFile(file);
+        if (!(psiFile instanceof PsiJavaFile)) {
+            return null;
+        }
+
+        final var document = FileDocumentManager.getInstance().getDocument(file);
+        if (document == null) {
+            return null;
+        }
+
+        final var pointerManager = SmartPointerManager.getInstance(project);
+        final var staleRecords = new ArrayList<StaleRecord>();
+        for (final var recordClass :
+            PsiTreeUtil.findChildrenOfType(psiFile, PsiClass.class)
+        ) {
+            ProgressManager.checkCanceled();
+            if (!recordClass.isRecord() || !isBuilderStale(recordClass)) {
+                continue;
+            }
+
+            final var builderClass = findBuilderClass(recordClass);
+            if (builderClass == null) {
+                continue;
+            }
+            final var options = detectOptions(builderClass);
+            // keep the subset the user picked when generating it
+            final var components = mapNamesToFields(
+                recordClass, mapBuilderComponentNames(recordClass, builderClass));
+            staleRecords.add(new StaleRecord(
+                pointerManager.createSmartPsiElementPointer(recordClass),
+                createBuilderClass(recordClass, components, options).getText(),
+                options));
+        }
+
+        return staleRecords.isEmpty()
+               ? null
+               : new SyncPlan(file, document.getModificationStamp(), staleRecords);
+    }
+
+    private void regenerate(SyncPlan plan) {
+        if (plan == null || project.isDisposed()) {
+            return;
+        }
+
+        final var document =
+            FileDocumentManager.getInstance().getDocument(plan.file());
+        if (document == null) {
+            return;
+        }
+
+        /* the user (or something else) changed the file since we analysed it,
+          don't fight with them - try again once they've stopped */
+        if (document.getModificationStamp() != plan.modificationStamp() ||
+            PsiDocumentManager.getInstance(project).isUncommited(document)
+        ) {
+            markDirty(plan.file());
+            return;
+        }
+
+        syncing = true;
+        try {
+            WriteCommandAction.writeCommandAction(project)
+                .withName("Sync Fruitfly Builders")
+                .run(() -> {
+                    for (final var staleRecord : plan.staleRecords()) {
+                        final var recordClass = staleRecord.recordPointer().getElement();
+                        if (recordClass == null) {
+                            continue;
+                        }
+                        log.info("regenerating builder for " +
+                            recordClass.getQualifiedName());
+                        writeBuilderClass(
+                            recordClass,
+                            createBuilderClassFromText(
+                                recordClass, staleRecord.builderText()),
+                            staleRecord.options());
+                    }
+                });
+        }
+        finally {
+            syncing = false;
+        }
+    }
+
+    @TestOnly
+    void suspendQueue() {
+        queue.setPassThrough(false);
+        queue.suspend();
+    }
+
+    /**
+     * back to passing updates straight through, as it does in tests
+     */
+    @TestOnly
+    void resumeQueue() {
+        queue.setPassThrough(true);
+        queue.resume();
+    }
+
+    @TestOnly
+    Set<VirtualFile> getDirtyFiles() {
+        return dirtyFiles;
+    }
+
+    @Override
+    public void dispose() {
+        dirtyFiles.clear();
+        undoneFiles.clear();
+    }
+
+}
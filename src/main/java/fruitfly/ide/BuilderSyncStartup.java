@@ -0,0 +1,20 @@
+package fruitfly.ide;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Starts {@link BuilderSyncService} for projects where the user previously
+ * turned builder sync on.
+ */
+public class BuilderSyncStartup implements StartupActivity.DumbAware {
+
+    @Override
+    public void runActivity(@NotNull Project project) {
+        if (BuilderSyncService.isEnabled(project)) {
+            BuilderSyncService.getInstance(project);
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package fruitfly.ide;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Defines the `Keep Fruitfly Builders in Sync` item in the tools menu.
+ */
+public class BuilderSyncToggleAction extends ToggleAction {
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public boolean isSelected(@NotNull AnActionEvent event) {
+        final var project = event.getProject();
+        return project != null && BuilderSyncService.isEnabled(project);
+    }
+
+    @Override
+    public void setSelected(@NotNull AnActionEvent event, boolean state) {
+        final var project = event.getProject();
+        if (project != null) {
+            BuilderSyncService.setEnabled(project, state);
+        }
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent event) {
+        super.update(event);
+        event.getPresentation().setEnabledAndVisible(event.getProject() != null);
+    }
+
+}
@@ -2,26 +2,172 @@ package fruitfly.ide;
 
 import com.intellij.codeInsight.generation.PsiFieldMember;
 import com.intellij.ide.util.MemberChooser;
+import com.intellij.ide.util.PropertiesComponent;
 import com.intellij.navigation.NavigationItem;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiMember;
 import com.intellij.psi.PsiRecordComponent;
 import com.intellij.psi.PsiVariable;
 import fruitfly.psi.BuilderGenerator;
+import fruitfly.psi.BuilderOptions;
 
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import java.awt.BorderLayout;
 import java.util.List;
+import java.util.Objects;
 
+import static fruitfly.psi.BuilderGenerator.detectOptions;
+import static fruitfly.psi.BuilderGenerator.findBuilderClass;
+import static fruitfly.psi.BuilderGenerator.mapSiblingBuilderName;
+import static fruitfly.psi.BuilderOptions.builderOptions;
 import static java.util.Arrays.stream;
-import static java.util.Collections.emptyList;
 import static java.util.Objects.requireNonNull;
 
 public class ClassMemberChooser {
 
+    /**
+     * Project property: where new sibling `FooBuilder.java` files go,
+     * relative to the module's content root.  Unset puts them next to the
+     * record.  Set from the builder dialog.
+     */
+    public static final String GENERATED_SOURCES_ROOT_KEY =
+        "fruitfly.generatedSourcesRoot";
+
+    /**
+     * What the user picked in the dialog: the fields to generate and the
+     * optional structures to generate alongside the `Builder`.
+     *
+     * @param switchesLayout the record has a builder in the other layout
+     *                       (nested vs. sibling file), which the user asked
+     *                       to replace
+     */
+    public record BuilderChoice(
+        List<String> fieldNames,
+        BuilderOptions options,
+        boolean switchesLayout
+    ) { }
+
     /**
      * Displays the confirmation dialog where users can choose what fields to
-     * generate.
+     * generate, with checkboxes for the optional structures listed in
+     * {@link BuilderOptions}.  When regenerating, the checkboxes start out as
+     * the existing builder was generated, like the intention and sync keep
+     * them, so nothing is dropped unless the user unticks it.
+     *
+     * @return null if the dialog was cancelled
      */
-    public static List<String> chooseFieldNames(PsiClass recordClass) {
+    public static BuilderChoice chooseBuilder(PsiClass recordClass) {
+        final var canonical = new JCheckBox(
+            "Generate buildCanonical() backed by a bounded cache");
+        final var batch = new JCheckBox(
+            "Generate Builder.Batch for bulk construction");
+        final var codec = new JCheckBox(
+            "Generate ByteBuffer codec and Builder.View");
+        final var jfr = new JCheckBox(
+            "Emit a JFR event from build()");
+        final var siblingFile = new JCheckBox(
+            "Generate into " + mapSiblingBuilderName(recordClass) +
+                ".java, leaving the record untouched");
+        final var existingBuilder = findBuilderClass(recordClass);
+        final var existingOptions = existingBuilder == null
+                                    ? BuilderOptions.defaults()
+                                    : detectOptions(existingBuilder);
+        final var existingSibling =
+            existingBuilder != null && existingOptions.siblingFile();
+        canonical.setSelected(existingOptions.canonical());
+        batch.setSelected(existingOptions.batch());
+        codec.setSelected(existingOptions.codec());
+        jfr.setSelected(existingOptions.jfr());
+        siblingFile.setSelected(existingSibling);
+
+        final var properties = PropertiesComponent.getInstance(recordClass.getProject());
+        final var generatedSourcesRoot = new JTextField(
+            properties.getValue(GENERATED_SOURCES_ROOT_KEY, ""));
+        generatedSourcesRoot.setToolTipText(
+            "Relative to the module's content root, e.g. src/generated/java; " +
+                "blank puts the file next to the record");
+        generatedSourcesRoot.setEnabled(siblingFile.isSelected());
+        siblingFile.addItemListener(i ->
+            generatedSourcesRoot.setEnabled(siblingFile.isSelected()));
+        final var generatedSourcesPanel = new JPanel(new BorderLayout(8, 0));
+        generatedSourcesPanel.add(
+            new JLabel("Builder file directory:"), BorderLayout.WEST);
+        generatedSourcesPanel.add(generatedSourcesRoot, BorderLayout.CENTER);
+
+        final var chooser = createChooser(
+            recordClass,
+            new JComponent[]{
+                canonical, batch, codec, jfr, siblingFile, generatedSourcesPanel
+            }
+        );
+
+        chooser.show();
+        if (!chooser.isOK()) {
+            return null;
+        }
+
+        // kept for the next dialog, and for finding the builder there
+        final var root = generatedSourcesRoot.getText().strip();
+        properties.setValue(GENERATED_SOURCES_ROOT_KEY, root, "");
+
+        return new BuilderChoice(
+            mapSelectedFieldNames(chooser),
+            builderOptions().
+                canonical(canonical.isSelected()).
+                batch(batch.isSelected()).
+                codec(codec.isSelected()).
+                jfr(jfr.isSelected()).
+                siblingFile(siblingFile.isSelected()).
+                generatedSourcesRoot(root.isEmpty() ? null : root).
+                build(),
+            existingBuilder != null && existingSibling != siblingFile.isSelected()
+        );
+    }
+
+    /**
+     * Single-select dialog for filling a target component that has no
+     * same-named counterpart in the mapper's source record.
+     *
+     * @return the chosen source component name, null to leave it unmapped
+     */
+    public static String chooseSourceComponent(
+        PsiClass sourceRecord,
+        PsiRecordComponent targetComponent,
+        List<PsiRecordComponent> candidates
+    ) {
+        final var members = candidates.stream().
+            map(i -> sourceRecord.findFieldByName(i.getName(), false)).
+            filter(Objects::nonNull).
+            map(PsiFieldMember::new).
+            toArray(PsiFieldMember[]::new);
+
+        final var chooser = new MemberChooser<>(
+            members,
+            true,  // allowEmptySelection
+            false, // allowMultiSelection
+            sourceRecord.getProject()
+        );
+        chooser.setCopyJavadocVisible(false);
+        chooser.setTitle("Select Source for " + targetComponent.getName() +
+            " (" + targetComponent.getType().getPresentableText() + ")");
+
+        chooser.show();
+        if (!chooser.isOK()) {
+            return null;
+        }
+
+        final var selected = mapSelectedFieldNames(chooser);
+        return selected.isEmpty() ? null : selected.get(0);
+    }
+
+    private static MemberChooser<PsiFieldMember> createChooser(
+        PsiClass recordClass,
+        JComponent[] optionControls
+    ) {
         final var members = mapAllFieldMembers(recordClass);
 
         final var chooser = new MemberChooser<>(
@@ -29,7 +175,8 @@ public class ClassMemberChooser {
             false, // allowEmptySelection
             true,  // allowMultiSelection
             recordClass.getProject(),
-            false // isInsertOverrideVisible
+            null, // headerPanel
+            optionControls
         );
         chooser.setCopyJavadocVisible(false);
         chooser.selectElements(
@@ -38,13 +185,15 @@ public class ClassMemberChooser {
                 toArray(PsiFieldMember[]::new)
         );
         chooser.setTitle("Select Fields to Be Available in Builder");
+        return chooser;
+    }
 
-        chooser.show();
-        if (!chooser.isOK()) {
-            return emptyList();
-        }
-
-        // return the chosen fields as a list of field names
+    /**
+     * return the chosen fields as a list of field names
+     */
+    private static List<String> mapSelectedFieldNames(
+        MemberChooser<PsiFieldMember> chooser
+    ) {
         final var selectedMembers =
             requireNonNull(chooser.getSelectedElements());
         return selectedMembers.stream().
@@ -0,0 +1,143 @@
+package fruitfly.ide;
+
+import com.intellij.codeInsight.hint.HintManager;
+import com.intellij.ide.util.TreeClassChooserFactory;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.search.GlobalSearchScope;
+import fruitfly.psi.MapperGenerator.MapperResult;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static com.intellij.openapi.command.WriteCommandAction.runWriteCommandAction;
+import static com.intellij.psi.util.PsiTreeUtil.getParentOfType;
+import static fruitfly.ide.ClassMemberChooser.chooseSourceComponent;
+import static fruitfly.psi.MapperGenerator.generateMapper;
+import static fruitfly.psi.MapperGenerator.mapCandidates;
+import static fruitfly.psi.MapperGenerator.mapMethodName;
+import static fruitfly.psi.MapperGenerator.matchComponents;
+
+/**
+ * Defines the `Fruitfly Record Mapper` item in the generate menu: maps the
+ * record under the caret into another record picked from a class chooser.
+ */
+public class MapperAction extends AnAction {
+
+    private static final Logger log = Logger.getInstance(MapperAction.class);
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent event) {
+        event.getPresentation().setEnabledAndVisible(findRecord(event) != null);
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent event) {
+        final var project = event.getProject();
+        final var editor = event.getData(CommonDataKeys.EDITOR);
+        final var sourceRecord = findRecord(event);
+        if (project == null || editor == null || sourceRecord == null) {
+            log.warn("actionPerformed() no project, editor or record");
+            return;
+        }
+
+        final var targetChooser = TreeClassChooserFactory.getInstance(project)
+            .createWithInnerClassesScopeChooser(
+                "Select Target Record for " + sourceRecord.getName(),
+                GlobalSearchScope.projectScope(project),
+                PsiClass::isRecord,
+                null);
+        targetChooser.showDialog();
+        final var targetRecord = targetChooser.getSelected();
+        if (targetRecord == null) {
+            return;
+        }
+
+        // same name and a compatible type first, then ask about the rest
+        final var choices = matchComponents(sourceRecord, targetRecord);
+        for (final var target : targetRecord.getRecordComponents()) {
+            if (choices.containsKey(target.getName())) {
+                continue;
+            }
+
+            final var candidates = mapCandidates(sourceRecord, target);
+            if (candidates.isEmpty()) {
+                continue;
+            }
+
+            final var sourceName =
+                chooseSourceComponent(sourceRecord, target, candidates);
+            if (sourceName != null) {
+                choices.put(target.getName(), sourceName);
+            }
+        }
+
+        final var result = new AtomicReference<MapperResult>();
+        runWriteCommandAction(project, () -> {
+            result.set(generateMapper(sourceRecord, targetRecord, choices));
+        });
+
+        final var warning = createMapperWarning(targetRecord, result.get());
+        if (warning != null) {
+            HintManager.getInstance().showInformationHint(editor, warning);
+        }
+    }
+
+    private static String createMapperWarning(
+        PsiClass targetRecord,
+        MapperResult result
+    ) {
+        if (result == null ||
+            result.converted().isEmpty() && result.unmapped().isEmpty()
+        ) {
+            return null;
+        }
+
+        final var warnings = new ArrayList<String>();
+        if (!result.converted().isEmpty()) {
+            warnings.add("converts " +
+                result.converted().stream()
+                    .map(i -> i.source().getName() + " (" +
+                        i.source().getType().getPresentableText() + " -> " +
+                        i.target().getType().getPresentableText() + ")")
+                    .collect(Collectors.joining(", ")) +
+                ", check for lost precision, formatting or nulls");
+        }
+        if (!result.unmapped().isEmpty()) {
+            warnings.add("passes a placeholder for " +
+                result.unmapped().stream()
+                    .map(i -> i.getName())
+                    .collect(Collectors.joining(", ")) +
+                ", nothing maps to them");
+        }
+        return mapMethodName(targetRecord) + "() " + String.join("; ", warnings);
+    }
+
+    /**
+     * use of PSI_FILE in update() method requires updateThread = BGT
+     */
+    private static PsiClass findRecord(@NotNull AnActionEvent event) {
+        final var editor = event.getData(CommonDataKeys.EDITOR);
+        final var file = event.getData(CommonDataKeys.PSI_FILE);
+        if (event.getProject() == null || editor == null || file == null) {
+            return null;
+        }
+
+        final var elementAtCaret =
+            file.findElementAt(editor.getCaretModel().getOffset());
+        final var psiClass = getParentOfType(elementAtCaret, PsiClass.class, false);
+        return psiClass != null && psiClass.isRecord() ? psiClass : null;
+    }
+
+}
@@ -1,26 +1,68 @@
 package fruitfly.psi;
 
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiClassType;
+import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiEllipsisType;
+import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiExpressionStatement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
 import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiLiteralExpression;
+import com.intellij.psi.PsiManager;
 import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiMethodCallExpression;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.PsiNewExpression;
+import com.intellij.psi.PsiPrimitiveType;
 import com.intellij.psi.PsiRecordComponent;
+import com.intellij.psi.PsiReferenceExpression;
+import com.intellij.psi.PsiReturnStatement;
+import com.intellij.psi.PsiThisExpression;
+import com.intellij.psi.PsiType;
+import com.intellij.psi.PsiTypeParameter;
+import com.intellij.psi.PsiTypes;
 import com.intellij.psi.PsiVariable;
+import com.intellij.psi.codeStyle.CodeStyleManager;
 import com.intellij.psi.codeStyle.JavaCodeStyleManager;
 import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
+import com.intellij.util.IncorrectOperationException;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
 
 import static com.intellij.openapi.util.text.StringUtil.decapitalize;
+import static fruitfly.ide.ClassMemberChooser.GENERATED_SOURCES_ROOT_KEY;
 import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
 import static java.util.Arrays.stream;
+import static java.util.Objects.requireNonNull;
+import static java.util.Objects.requireNonNullElse;
 
 public class BuilderGenerator {
 
+    private static final Logger log = Logger.getInstance(BuilderGenerator.class);
+
     // TODO:
     //  1. support regular classes
     //  2. do not delete existing builder, but only append with new setter methods
@@ -28,20 +70,68 @@ public class BuilderGenerator {
     public static void generateBuilderPattern(
         PsiClass recordClass,
         List<String> selectFieldNames
+    ) {
+        generateBuilderPattern(
+            recordClass, selectFieldNames, BuilderOptions.defaults());
+    }
+
+    public static void generateBuilderPattern(
+        PsiClass recordClass,
+        List<String> selectFieldNames,
+        BuilderOptions options
     ) {
         final var selectedFields = mapNamesToFields(recordClass, selectFieldNames);
 
-        removeBuilderClasses(recordClass);
+        writeBuilderClass(
+            recordClass,
+            createBuilderClass(recordClass, selectedFields, options),
+            options);
+    }
+
+    /**
+     * Puts an already created builder class where `options` says it goes:
+     * nested in the record, or in its own sibling source file.
+     */
+    public static void writeBuilderClass(
+        PsiClass recordClass,
+        PsiClass builderClass,
+        BuilderOptions options
+    ) {
+        if (options.siblingFile()) {
+            writeSiblingBuilderClass(recordClass, builderClass, options);
+        }
+        else {
+            insertBuilderClass(recordClass, builderClass);
+        }
+    }
+
+    /**
+     * Replaces any existing builder structures in the record with the given,
+     * already created, builder class.  A sibling `FooBuilder.java` is left
+     * alone, see {@link #removeBuilderClasses}.
+     */
+    public static void insertBuilderClass(
+        PsiClass recordClass,
+        PsiClass builderClass
+    ) {
+        removeNestedBuilderClasses(recordClass);
 
         // denotes the `}` token that declares the end of the class
         final var endOfClass = recordClass.getLastChild();
 
-        // create builder pattern structures and add them to the record
-        final var builderClass = recordClass.addBefore(
-            createBuilderClass(recordClass, selectedFields),
-            endOfClass);
+        // add the builder pattern structures to the record
+        final var insertedClass = recordClass.addBefore(builderClass, endOfClass);
+
+        if (builderClass.findInnerClassByName("View", false) != null) {
+            // the instance side of the codec lives on the record itself
+            final var writeTo = recordClass.addBefore(
+                createRecordWriteToMethod(recordClass),
+                insertedClass);
+            JavaCodeStyleManager.getInstance(recordClass.getProject())
+                .shortenClassReferences(writeTo);
+        }
 
-        formatRecordCode(recordClass, builderClass);
+        formatRecordCode(recordClass, insertedClass);
     }
 
     @NotNull
@@ -49,26 +139,44 @@ public class BuilderGenerator {
         PsiClass recordClass,
         PsiVariable[] components
     ) {
-        final var elementFactory =
-            JavaPsiFacade.getElementFactory(recordClass.getProject());
+        return createBuilderClass(
+            recordClass, components, BuilderOptions.defaults());
+    }
 
+    @NotNull
+    public static PsiClass createBuilderClass(
+        PsiClass recordClass,
+        PsiVariable[] components,
+        BuilderOptions options
+    ) {
+        final var builderName = mapBuilderName(recordClass, options);
         final var text = new StringBuilder(
-            "public static final class Builder {");
+            "public static final class " + builderName + " {");
 
         // define fields
         for (final var component : components) {
             text.append(createFieldDeclaration(component));
         }
 
+        // components with a @Default, in the order their `set` bits are assigned
+        final var defaultValues = mapDefaultValues(components);
+        final var defaultedNames = List.copyOf(defaultValues.keySet());
+        final var defaultedComponents = stream(components).
+            filter(i -> defaultValues.containsKey(i.getName())).
+            toList();
+        text.append(createDefaultValueFields(components, defaultValues));
+
         text.append("\n");
-        text.append(createBuilderMethod(recordClass));
+        text.append(createBuilderMethod(recordClass, builderName));
 
         // define setters
         for (final var component : components) {
             final var fieldName = component.getName();
             final var fieldType = component.getType().getCanonicalText();
 
-            text.append("public Builder ")
+            text.append("public ")
+                .append(builderName)
+                .append(" ")
                 .append(fieldName)
                 .append("(")
                 .append(fieldType)
@@ -80,14 +188,33 @@ public class BuilderGenerator {
                 .append(" = ")
                 .append(fieldName)
                 .append(";");
+            final var defaultIndex = defaultedNames.indexOf(fieldName);
+            if (defaultIndex >= 0) {
+                text.append("this.")
+                    .append(mapDefaultSetField(defaultIndex))
+                    .append(" |= ")
+                    .append(mapDefaultSetBit(defaultIndex))
+                    .append(";");
+            }
             text.append("return this;");
             text.append("}");
         }
 
-        // Append build method to Builder class
+        /* Append build method to Builder class.
+          Only ever one `aload_0; getfield` per argument, so even at the JVM's
+          255 parameter limit the canonical constructor call stays well under
+          BytecodeEstimator.HUGE_METHOD_LIMIT and is never split. */
         text.append("public ")
             .append(recordClass.getName())
             .append(" build() {");
+        final var applyDefaults = createApplyDefaultsStatements(
+            recordClass, defaultedComponents, options);
+        text.append(applyDefaults.body());
+        if (options.jfr()) {
+            text.append("if (this.buildEvent != null) {")
+                .append("commitBuildEvent();")
+                .append("}");
+        }
         text.append("return new ")
             .append(recordClass.getName())
             .append("(");
@@ -96,10 +223,51 @@ public class BuilderGenerator {
             parameters.add("this." + component.getName());
         }
         text.append(parameters).append(");");
-        text.append("}}");
+        text.append("}");
+        text.append(applyDefaults.helpers());
+
+        if (options.jfr()) {
+            text.append(createBuildEventMembers(recordClass, components, options));
+        }
+
+        if (options.canonical()) {
+            text.append(createCanonicalMembers(recordClass));
+        }
+
+        if (options.batch()) {
+            text.append(createBatchClass(recordClass, components, options));
+        }
+
+        if (options.codec()) {
+            if (isCodecEligible(recordClass, components)) {
+                text.append(createCodecMembers(recordClass, components, options));
+            }
+            else {
+                log.warn("codec not generated for " + recordClass.getName() +
+                    ", components must be primitives, Strings, enums or " +
+                    "records with a generated codec");
+            }
+        }
+
+        text.append("}");
+
+        return createBuilderClassFromText(recordClass, text.toString());
+    }
+
+    /**
+     * Parses previously generated builder source, e.g. the text of a builder
+     * created for an intention preview, in the context of the record.
+     */
+    @NotNull
+    public static PsiClass createBuilderClassFromText(
+        PsiClass recordClass,
+        String builderText
+    ) {
+        final var elementFactory =
+            JavaPsiFacade.getElementFactory(recordClass.getProject());
 
         final var dummyClass = elementFactory.createClassFromText(
-            text.toString(), recordClass);
+            builderText, recordClass);
 
        /* It seems the createClassFromText() method generates a _Dummy_ parent
          class for the inner class, we don't care about that - so dig out the
@@ -114,29 +282,213 @@ public class BuilderGenerator {
         final var type = component.getType();
         final var fieldTypeString = type.getCanonicalText();
 
+        final var postfix = isOptionalType(type) ? " = java.util.Optional.empty()" : "";
+
+        return "private " + fieldTypeString + " " + fieldName + postfix + ";";
+    }
+
+    static boolean isOptionalType(PsiType type) {
         // Проверяем, является ли тип классом (а не примитивом или массивом)
-        var isOptional = false;
         if (type instanceof PsiClassType classType) {
             // Берем сырой тип (стираем дженерики) без обращения к индексам и resolve()
             final var rawClassName = classType.rawType().getCanonicalText();
 
             // Проверяем и полное имя (для production), и короткое (для тестов без JDK)
-            if ("java.util.Optional".equals(rawClassName) || "Optional".equals(rawClassName)) {
-                isOptional = true;
+            return "java.util.Optional".equals(rawClassName) || "Optional".equals(rawClassName);
+        }
+        return false;
+    }
+
+    /**
+     * Reads `@Default("expression")` from the components.  Any annotation
+     * with that simple name counts, so projects declare their own, e.g.
+     * `@Target(RECORD_COMPONENT) @interface Default { String value(); }`.
+     * <p>
+     * Class references in the expression are qualified, so it still
+     * compiles wherever the builder ends up.  A value that isn't a Java
+     * expression, e.g. from some other library's `@Default("n a")`, is
+     * skipped rather than failing the whole generation.
+     *
+     * @return expression text by component name, in component order
+     */
+    public static Map<String, String> mapDefaultValues(
+        PsiVariable[] components
+    ) {
+        final var defaultValues = new LinkedHashMap<String, String>();
+        for (final var component : components) {
+            final var modifierList = component.getModifierList();
+            if (modifierList == null) {
+                continue;
+            }
+
+            for (final var annotation : modifierList.getAnnotations()) {
+                final var reference = annotation.getNameReferenceElement();
+                if (reference == null ||
+                    !"Default".equals(reference.getReferenceName())
+                ) {
+                    continue;
+                }
+
+                final var value = annotation.findDeclaredAttributeValue("value");
+                if (value instanceof PsiLiteralExpression literal &&
+                    literal.getValue() instanceof String expressionText &&
+                    !expressionText.isBlank()
+                ) {
+                    final var expression =
+                        createDefaultExpression(component, expressionText);
+                    if (expression == null) {
+                        log.warn("@Default ignored for " + component.getName() +
+                            ", not an expression: " + expressionText);
+                        continue;
+                    }
+                    defaultValues.put(
+                        component.getName(),
+                        JavaCodeStyleManager.getInstance(component.getProject())
+                            .qualifyClassReferences(expression).getText());
+                }
             }
         }
+        return defaultValues;
+    }
 
-        final var postfix = isOptional ? " = java.util.Optional.empty()" : "";
+    private static PsiExpression createDefaultExpression(
+        PsiVariable component,
+        String expressionText
+    ) {
+        try {
+            final var expression = JavaPsiFacade
+                .getElementFactory(component.getProject())
+                .createExpressionFromText(expressionText, component);
+            // trailing junk can end up next to the expression, not in it
+            return PsiTreeUtil.hasErrorElements(expression.getContainingFile())
+                   ? null
+                   : expression;
+        }
+        catch (IncorrectOperationException e) {
+            return null;
+        }
+    }
 
-        return "private " + fieldTypeString + " " + fieldName + postfix + ";";
+    /**
+     * A `Supplier` per defaulted component, plus one `long` of "was set"
+     * bits per 64 defaulted components.  The suppliers are only called from
+     * `build()`, and only for components that were never set, so an unused
+     * default costs nothing.  Primitive components get the primitive
+     * supplier that holds them without boxing, see {@link #mapSupplierType}.
+     */
+    public static String createDefaultValueFields(
+        PsiVariable[] components,
+        Map<String, String> defaultValues
+    ) {
+        final var text = new StringBuilder();
+        for (final var component : components) {
+            final var expression = defaultValues.get(component.getName());
+            if (expression == null) {
+                continue;
+            }
+
+            text.append("private static final ")
+                .append(mapSupplierType(mapValueType(component.getType())))
+                .append(" ")
+                .append(component.getName()).append("Default = () -> ")
+                .append(expression).append(";");
+        }
+
+        for (int i = 0; i < defaultValues.size(); i += Long.SIZE) {
+            text.append("private long ").append(mapDefaultSetField(i)).append(";");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Evaluates the defaults of unset components at the start of `build()`.
+     * The `set` bits are left alone, so a reused builder gets fresh defaults
+     * on every `build()`.
+     */
+    public static SplitStatements createApplyDefaultsStatements(
+        PsiClass recordClass,
+        List<PsiVariable> defaultedComponents,
+        BuilderOptions options
+    ) {
+        final var statements = new ArrayList<ChunkableStatement>();
+        for (int i = 0; i < defaultedComponents.size(); i++) {
+            final var component = defaultedComponents.get(i);
+            final var name = component.getName();
+            statements.add(new ChunkableStatement(
+                null, null,
+                "if ((this." + mapDefaultSetField(i) + " & " +
+                    mapDefaultSetBit(i) + ") == 0) {" +
+                    "this." + name + " = " +
+                    mapSupplierCall(mapValueType(component.getType()), name + "Default") +
+                    ";}"));
+        }
+
+        return splitStatements(recordClass,
+            "private", "applyDefaults", null, null,
+            statements, options.methodSizeLimit());
+    }
+
+    /**
+     * `int`, `long`, `double` and `boolean` have their own suppliers;
+     * `short`, `byte` and `char` widen to `IntSupplier` and `float` to
+     * `DoubleSupplier`, narrowed back in {@link #mapSupplierCall}.
+     */
+    private static String mapSupplierType(PsiType type) {
+        if (PsiTypes.longType().equals(type)) {
+            return "java.util.function.LongSupplier";
+        }
+        if (PsiTypes.doubleType().equals(type) || PsiTypes.floatType().equals(type)) {
+            return "java.util.function.DoubleSupplier";
+        }
+        if (PsiTypes.booleanType().equals(type)) {
+            return "java.util.function.BooleanSupplier";
+        }
+        if (type instanceof PsiPrimitiveType) {
+            return "java.util.function.IntSupplier";
+        }
+        return "java.util.function.Supplier<" + type.getCanonicalText() + ">";
+    }
+
+    private static String mapSupplierCall(PsiType type, String supplierName) {
+        if (PsiTypes.longType().equals(type)) {
+            return supplierName + ".getAsLong()";
+        }
+        if (PsiTypes.doubleType().equals(type)) {
+            return supplierName + ".getAsDouble()";
+        }
+        if (PsiTypes.floatType().equals(type)) {
+            return "(float) " + supplierName + ".getAsDouble()";
+        }
+        if (PsiTypes.booleanType().equals(type)) {
+            return supplierName + ".getAsBoolean()";
+        }
+        if (PsiTypes.intType().equals(type)) {
+            return supplierName + ".getAsInt()";
+        }
+        if (type instanceof PsiPrimitiveType primitiveType) {
+            return "(" + primitiveType.getName() + ") " + supplierName + ".getAsInt()";
+        }
+        return supplierName + ".get()";
+    }
+
+    private static String mapDefaultSetField(int defaultIndex) {
+        return "defaultsSet" + defaultIndex / Long.SIZE;
+    }
+
+    private static String mapDefaultSetBit(int defaultIndex) {
+        return "1L << " + defaultIndex % Long.SIZE;
     }
 
     public static String createBuilderMethod(
         PsiClass recordClass
     ) {
-        final var elementFactory =
-            JavaPsiFacade.getElementFactory(recordClass.getProject());
+        return createBuilderMethod(recordClass, "Builder");
+    }
 
+    public static String createBuilderMethod(
+        PsiClass recordClass,
+        String builderName
+    ) {
         // Получаем имя record'а и делаем первую букву строчной
         final var recordName = recordClass.getName();
         final var methodName = recordName != null
@@ -144,23 +496,303 @@ public class BuilderGenerator {
                                : "builder"; // фолбэк на случай безымянного класса (хотя для records это экзотика)
 
         // Генерируем статический метод создания билдера с новым именем
-        return "public static Builder " + methodName + "() {" +
-            "return new Builder();" +
+        return "public static " + builderName + " " + methodName + "() {" +
+            "return new " + builderName + "();" +
             "}";
     }
 
+    /**
+     * A JFR event per `build()`, so production recordings show which record
+     * types are built most, how many builders are created per second and
+     * how long they live before `build()`.  A reused builder starts its next
+     * event as it commits one, so every `build()` is reported, timed from
+     * the previous one.
+     * <p>
+     * The event object is only allocated if the event is enabled when the
+     * builder is created or last built; with JFR off the cost is one
+     * `isEnabled()` check per builder and a null check in `build()`.  "Non-default components"
+     * counts the components not left at `null`, `0`, `false` or
+     * `Optional.empty()`, worked out only when the event is actually
+     * committed.  It can't tell a setter call with a default value from no
+     * call; tracking calls would cost every setter a write with JFR off.
+     */
+    public static String createBuildEventMembers(
+        PsiClass recordClass,
+        PsiVariable[] components,
+        BuilderOptions options
+    ) {
+        final var recordName = String.valueOf(recordClass.getName());
+        final var qualifiedName = requireNonNullElse(
+            recordClass.getQualifiedName(), recordName);
+
+        final var counts = new ArrayList<ChunkableStatement>();
+        for (final var component : components) {
+            final var field = "this." + component.getName();
+            final var type = component.getType();
+            final String isSet;
+            if (PsiTypes.booleanType().equals(type)) {
+                isSet = field;
+            }
+            else if (type instanceof PsiPrimitiveType) {
+                isSet = field + " != 0";
+            }
+            else if (isOptionalType(type)) {
+                isSet = field + " != null && " + field + ".isPresent()";
+            }
+            else {
+                isSet = field + " != null";
+            }
+            counts.add(new ChunkableStatement(
+                null, null,
+                "if (" + isSet + ") { event.nonDefaultComponents++; }"));
+        }
+
+        final var count = splitStatements(recordClass,
+            "private", "countNonDefaultComponents", "BuildEvent event", "event",
+            counts, options.methodSizeLimit());
+
+        return """
+            private static final BuildEvent BUILD_EVENT_PROBE = new BuildEvent();
+
+            private BuildEvent buildEvent = beginBuildEvent();
+
+            private static BuildEvent beginBuildEvent() {
+                if (!BUILD_EVENT_PROBE.isEnabled()) {
+                    return null;
+                }
+                final BuildEvent event = new BuildEvent();
+                event.begin();
+                return event;
+            }
+
+            private void commitBuildEvent() {
+                final BuildEvent event = this.buildEvent;
+                event.end();
+                this.buildEvent = beginBuildEvent();
+                if (!event.shouldCommit()) {
+                    return;
+                }
+                event.recordType = "%2$s";
+                %3$s
+                event.commit();
+            }
+
+            %4$s
+
+            @jdk.jfr.Name("%2$s.Build")
+            @jdk.jfr.Label("Build %1$s")
+            @jdk.jfr.Category({"Fruitfly", "Builders"})
+            @jdk.jfr.Description("A %1$s built by its Fruitfly builder, from builder creation or its previous build() to build()")
+            public static final class BuildEvent extends jdk.jfr.Event {
+                @jdk.jfr.Label("Record Type")
+                String recordType;
+
+                @jdk.jfr.Label("Non-default Components")
+                @jdk.jfr.Description("Components not left at null, 0, false or Optional.empty() when built")
+                int nonDefaultComponents;
+            }
+            """.formatted(
+            recordName,
+            qualifiedName,
+            count.body(),
+            count.helpers());
+    }
+
+    /**
+     * `buildCanonical()` returns a shared, value-equal instance instead of
+     * the freshly built one, so that heavily duplicated records (same
+     * country, status, postcode...) only occupy the heap once.
+     * <p>
+     * The default cache is a bounded LRU split into lock stripes (a power of
+     * two, scaled to the available processors) so concurrent builders rarely
+     * contend.  It's only allocated the first time it's used, in a holder
+     * class, so a builder that never calls `buildCanonical()` (or replaces
+     * the cache first) doesn't pay for the stripes.  Callers that prefer
+     * reference-based eviction can plug in their own cache through
+     * `canonicalCache(UnaryOperator)`, e.g. a weak interner.
+     * <p>
+     * `canonicalHitCount()` and friends read the default cache's counters
+     * without a cast, and return -1 once another cache is plugged in.
+     */
+    public static String createCanonicalMembers(
+        PsiClass recordClass
+    ) {
+        return """
+            private static volatile java.util.function.UnaryOperator<%1$s>
+                canonicalCache;
+
+            private static final class DefaultCanonicalCache {
+                static final Canonicalizer INSTANCE =
+                    new Canonicalizer(Canonicalizer.DEFAULT_MAXIMUM_SIZE);
+            }
+
+            public static java.util.function.UnaryOperator<%1$s> canonicalCache() {
+                final java.util.function.UnaryOperator<%1$s> cache = canonicalCache;
+                return cache != null ? cache : DefaultCanonicalCache.INSTANCE;
+            }
+
+            public static void canonicalCache(
+                java.util.function.UnaryOperator<%1$s> cache
+            ) {
+                canonicalCache = java.util.Objects.requireNonNull(cache);
+            }
+
+            public static long canonicalHitCount() {
+                return canonicalCache() instanceof Canonicalizer canonicalizer
+                       ? canonicalizer.hitCount()
+                       : -1;
+            }
+
+            public static long canonicalMissCount() {
+                return canonicalCache() instanceof Canonicalizer canonicalizer
+                       ? canonicalizer.missCount()
+                       : -1;
+            }
+
+            public static long canonicalEvictionCount() {
+                return canonicalCache() instanceof Canonicalizer canonicalizer
+                       ? canonicalizer.evictionCount()
+                       : -1;
+            }
+
+            public %1$s buildCanonical() {
+                return canonicalCache().apply(build());
+            }
+
+            public static final class Canonicalizer
+                implements java.util.function.UnaryOperator<%1$s> {
+                public static final int DEFAULT_MAXIMUM_SIZE = 65536;
+
+                private final Stripe[] stripes;
+                private final java.util.concurrent.atomic.LongAdder hits =
+                    new java.util.concurrent.atomic.LongAdder();
+                private final java.util.concurrent.atomic.LongAdder misses =
+                    new java.util.concurrent.atomic.LongAdder();
+                private final java.util.concurrent.atomic.LongAdder evictions =
+                    new java.util.concurrent.atomic.LongAdder();
+
+                public Canonicalizer(int maximumSize) {
+                    if (maximumSize < 1) {
+                        throw new IllegalArgumentException(
+                            "maximumSize must be positive: " + maximumSize);
+                    }
+                    final int parallelism =
+                        4 * Runtime.getRuntime().availableProcessors();
+                    int stripeCount = 1;
+                    while (stripeCount < parallelism &&
+                        stripeCount * 2 <= maximumSize) {
+                        stripeCount <<= 1;
+                    }
+                    this.stripes = new Stripe[stripeCount];
+                    for (int i = 0; i < stripeCount; i++) {
+                        this.stripes[i] = new Stripe(maximumSize / stripeCount);
+                    }
+                }
+
+                @Override
+                public %1$s apply(%1$s value) {
+                    final int hash = value.hashCode();
+                    final Stripe stripe =
+                        this.stripes[(hash ^ (hash >>> 16)) & (this.stripes.length - 1)];
+                    synchronized (stripe) {
+                        final %1$s existing = stripe.get(value);
+                        if (existing != null) {
+                            this.hits.increment();
+                            return existing;
+                        }
+                        stripe.put(value, value);
+                    }
+                    this.misses.increment();
+                    return value;
+                }
+
+                public long hitCount() {
+                    return this.hits.sum();
+                }
+
+                public long missCount() {
+                    return this.misses.sum();
+                }
+
+                public long evictionCount() {
+                    return this.evictions.sum();
+                }
+
+                public int size() {
+                    int size = 0;
+                    for (final Stripe stripe : this.stripes) {
+                        synchronized (stripe) {
+                            size += stripe.size();
+                        }
+                    }
+                    return size;
+                }
+
+                private final class Stripe
+                    extends java.util.LinkedHashMap<%1$s, %1$s> {
+                    private final int maximumSize;
+
+                    private Stripe(int maximumSize) {
+                        super(16, 0.75f, true);
+                        this.maximumSize = maximumSize;
+                    }
+
+                    @Override
+                    protected boolean removeEldestEntry(
+                        java.util.Map.Entry<%1$s, %1$s> eldest
+                    ) {
+                        if (size() <= this.maximumSize) {
+                            return false;
+                        }
+                        evictions.increment();
+                        return true;
+                    }
+                }
+            }
+            """.formatted(recordClass.getName());
+    }
+
+    /**
+     * Removes builder structures from both layouts: the ones nested in the
+     * record and the sibling `FooBuilder` source file.
+     * <p>
+     * Generation never does this by itself, since a hand-written `FooBuilder`
+     * can look just like a generated one - call it when the user explicitly
+     * switches layouts.
+     */
+    public static void removeBuilderClasses(PsiClass recordClass) {
+        if (removeNestedBuilderClasses(recordClass)) {
+            JavaCodeStyleManager.getInstance(recordClass.getProject())
+                .optimizeImports(recordClass.getContainingFile());
+        }
+        removeSiblingBuilderClass(recordClass);
+    }
+
     /**
      * Removes the following:
      * - `builder()` instance method
      * - `but()` instance method
+     * - `writeTo(ByteBuffer)` instance method, if it delegates to the codec
      * - `Builder` nested class
+     *
+     * @return true if anything was removed
      */
-    public static void removeBuilderClasses(PsiClass recordClass) {
+    public static boolean removeNestedBuilderClasses(PsiClass recordClass) {
+        var removed = false;
+
+        // resolved against the Builder, so look for it before deleting that
+        final var writeToDelegate = findRecordWriteToMethod(recordClass);
+        if (writeToDelegate != null) {
+            writeToDelegate.delete();
+            removed = true;
+        }
+
         // check if Builder class already exists and delete it
         final var innerClasses = recordClass.getInnerClasses();
         for (final var innerClass : innerClasses) {
             if ("Builder".equals(innerClass.getName())) {
                 innerClass.delete();
+                removed = true;
                 break; // Assuming only one Builder class exists
             }
         }
@@ -172,6 +804,7 @@ public class BuilderGenerator {
             if ("but".equals(method.getName()) && method.getParameterList()
                 .getParametersCount() == 0) {
                 method.delete();
+                removed = true;
                 break; // Assuming only one but() method exists
             }
         }
@@ -181,9 +814,1194 @@ public class BuilderGenerator {
             if ("builder".equals(method.getName()) && method.getParameterList()
                 .getParametersCount() == 0) {
                 method.delete();
+                removed = true;
                 break; // Assuming only one builder() method exists
             }
         }
+
+        return removed;
+    }
+
+    /**
+     * The `writeTo(ByteBuffer)` delegate that {@link #createRecordWriteToMethod}
+     * generates, exactly - a hand-written `writeTo` is never matched.
+     */
+    private static PsiMethod findRecordWriteToMethod(PsiClass recordClass) {
+        final var builderClass =
+            recordClass.findInnerClassByName("Builder", false);
+        if (builderClass == null) {
+            return null;
+        }
+
+        for (final var method : recordClass.findMethodsByName("writeTo", false)) {
+            final var parameters = method.getParameterList().getParameters();
+            final var body = method.getBody();
+            if (parameters.length != 1 || body == null ||
+                method.hasModifierProperty(PsiModifier.STATIC) ||
+                !isByteBufferType(parameters[0].getType()) ||
+                body.getStatements().length != 1 ||
+                !(body.getStatements()[0] instanceof PsiExpressionStatement statement) ||
+                !(statement.getExpression() instanceof PsiMethodCallExpression call)
+            ) {
+                continue;
+            }
+
+            final var expectedText = "Builder.writeTo(this," + parameters[0].getName() + ")";
+            final var target = call.resolveMethod();
+            if (expectedText.equals(call.getText().replaceAll("\\s", "")) &&
+                target != null && builderClass.equals(target.getContainingClass())
+            ) {
+                return method;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isByteBufferType(PsiType type) {
+        // short name for the tests without a JDK, see isStringType()
+        return type.equalsToText("java.nio.ByteBuffer") ||
+            type.equalsToText("ByteBuffer");
+    }
+
+    /**
+     * Removes the sibling `FooBuilder` class, and its file if that's all
+     * the file contains.
+     */
+    public static void removeSiblingBuilderClass(PsiClass recordClass) {
+        final var siblingClass = findSiblingBuilderClass(recordClass);
+        if (siblingClass == null) {
+            return;
+        }
+
+        final var file = siblingClass.getContainingFile();
+        if (file instanceof PsiJavaFile javaFile && javaFile.getClasses().length == 1) {
+            file.delete();
+        }
+        else {
+            siblingClass.delete();
+        }
+    }
+
+    /**
+     * Writes the builder to `FooBuilder.java` instead of nesting it in the
+     * record, so regenerating it doesn't change the record's source - and
+     * doesn't make incremental compilers recompile everything that depends
+     * on the record.
+     * <p>
+     * An existing sibling builder is replaced in place, wherever it lives; a
+     * builder nested in the record is left alone, see
+     * {@link #removeBuilderClasses}.  Otherwise the file is created next to the record, or under
+     * `options.generatedSourcesRoot()` (relative to the module's content
+     * root) in the record's package.  That directory is searched for an
+     * existing builder too, since a root that isn't marked as sources isn't
+     * indexed; a hand-written class of the same name there is an error.
+     */
+    public static void writeSiblingBuilderClass(
+        PsiClass recordClass,
+        PsiClass builderClass,
+        BuilderOptions options
+    ) {
+        final var project = recordClass.getProject();
+
+        // a top-level class can't be static
+        requireNonNull(builderClass.getModifierList())
+            .setModifierProperty(PsiModifier.STATIC, false);
+
+        final var existingClass = findSiblingBuilderClass(recordClass);
+        if (existingClass != null) {
+            final var replacedClass = existingClass.replace(builderClass);
+            addNestedRecordImport(
+                (PsiJavaFile) replacedClass.getContainingFile(), recordClass);
+            formatGeneratedCode(replacedClass.getContainingFile(), replacedClass);
+            return;
+        }
+
+        final var directory = findSiblingDirectory(recordClass, options);
+        final var existingFile = directory.findFile(builderClass.getName() + ".java");
+        if (existingFile != null) {
+            final var generatedClass = findBuilderInFile(existingFile, recordClass);
+            if (generatedClass == null) {
+                throw new IncorrectOperationException(
+                    existingFile.getVirtualFile().getPath() +
+                        " already exists and isn't a builder of " +
+                        recordClass.getName());
+            }
+            final var replacedClass = generatedClass.replace(builderClass);
+            addNestedRecordImport(
+                (PsiJavaFile) replacedClass.getContainingFile(), recordClass);
+            formatGeneratedCode(replacedClass.getContainingFile(), replacedClass);
+            return;
+        }
+
+        if (!ProjectFileIndex.getInstance(project)
+            .isInSourceContent(directory.getVirtualFile())
+        ) {
+            log.warn(directory.getVirtualFile().getPath() +
+                " isn't under a sources root, " + builderClass.getName() +
+                " won't be compiled");
+        }
+
+        final var addedFile = (PsiJavaFile) directory
+            .add(createSiblingBuilderFile(recordClass, builderClass));
+        addNestedRecordImport(addedFile, recordClass);
+        formatGeneratedCode(addedFile, addedFile.getClasses()[0]);
+        CodeStyleManager.getInstance(project).reformat(addedFile);
+    }
+
+    /**
+     * The sibling file as {@link #writeSiblingBuilderClass} would create it,
+     * formatted, without writing anything - for the intention preview.
+     */
+    public static String createSiblingBuilderText(
+        PsiClass recordClass,
+        PsiClass builderClass
+    ) {
+        final var copy = (PsiClass) builderClass.copy();
+        requireNonNull(copy.getModifierList())
+            .setModifierProperty(PsiModifier.STATIC, false);
+
+        final var file = createSiblingBuilderFile(recordClass, copy);
+        addNestedRecordImport(file, recordClass);
+        formatGeneratedCode(file, file.getClasses()[0]);
+        return CodeStyleManager.getInstance(recordClass.getProject())
+            .reformat(file)
+            .getText();
+    }
+
+    private static PsiJavaFile createSiblingBuilderFile(
+        PsiClass recordClass,
+        PsiClass builderClass
+    ) {
+        final var recordFile = (PsiJavaFile) recordClass.getContainingFile();
+        final var packageName = recordFile.getPackageName();
+        final var newFile = (PsiJavaFile) PsiFileFactory.getInstance(recordClass.getProject())
+            .createFileFromText(
+                builderClass.getName() + ".java",
+                JavaFileType.INSTANCE,
+                packageName.isEmpty() ? "" : "package " + packageName + ";\n\n");
+        newFile.add(builderClass);
+        return newFile;
+    }
+
+    /**
+     * The builder refers to the record by its simple name, which only
+     * resolves from another file if the record is top-level or imported.
+     */
+    private static void addNestedRecordImport(
+        PsiJavaFile file,
+        PsiClass recordClass
+    ) {
+        final var importList = file.getImportList();
+        if (recordClass.getContainingClass() == null || importList == null ||
+            importList.findSingleClassImportStatement(
+                recordClass.getQualifiedName()) != null
+        ) {
+            return;
+        }
+
+        importList.add(JavaPsiFacade.getElementFactory(file.getProject())
+            .createImportStatement(recordClass));
+    }
+
+    private static PsiDirectory findSiblingDirectory(
+        PsiClass recordClass,
+        BuilderOptions options
+    ) {
+        final var recordDirectory = requireNonNull(
+            recordClass.getContainingFile().getContainingDirectory());
+        final var generatedSourcesRoot = options.generatedSourcesRoot();
+        if (generatedSourcesRoot == null || generatedSourcesRoot.isBlank()) {
+            return recordDirectory;
+        }
+
+        final var baseDirectory = findContentRoot(recordClass);
+        if (baseDirectory == null) {
+            return recordDirectory;
+        }
+
+        final var path = mapGeneratedSourcesPath(recordClass, generatedSourcesRoot);
+        try {
+            final var directory = VfsUtil.createDirectoryIfMissing(baseDirectory, path);
+            return requireNonNull(PsiManager.getInstance(recordClass.getProject())
+                .findDirectory(directory));
+        }
+        catch (IOException e) {
+            throw new IncorrectOperationException("could not create " + path, e);
+        }
+    }
+
+    /**
+     * Like {@link #findSiblingDirectory}, but doesn't create anything.
+     *
+     * @return null if no generated-sources root is configured or the
+     * record's package doesn't exist under it yet
+     */
+    private static PsiDirectory findGeneratedSourcesDirectory(PsiClass recordClass) {
+        final var generatedSourcesRoot = PropertiesComponent
+            .getInstance(recordClass.getProject())
+            .getValue(GENERATED_SOURCES_ROOT_KEY);
+        final var baseDirectory = findContentRoot(recordClass);
+        if (generatedSourcesRoot == null || generatedSourcesRoot.isBlank() ||
+            baseDirectory == null
+        ) {
+            return null;
+        }
+
+        final var directory = baseDirectory.findFileByRelativePath(
+            mapGeneratedSourcesPath(recordClass, generatedSourcesRoot));
+        return directory == null || !directory.isDirectory()
+               ? null
+               : PsiManager.getInstance(recordClass.getProject())
+                   .findDirectory(directory);
+    }
+
+    private static VirtualFile findContentRoot(PsiClass recordClass) {
+        final var module = ModuleUtilCore.findModuleForPsiElement(recordClass);
+        final var contentRoots = module == null
+                                 ? new VirtualFile[0]
+                                 : ModuleRootManager.getInstance(module).getContentRoots();
+        return contentRoots.length > 0
+               ? contentRoots[0]
+               : ProjectUtil.guessProjectDir(recordClass.getProject());
+    }
+
+    private static String mapGeneratedSourcesPath(
+        PsiClass recordClass,
+        String generatedSourcesRoot
+    ) {
+        final var packagePath =
+            ((PsiJavaFile) recordClass.getContainingFile()).getPackageName()
+                .replace('.', '/');
+        return packagePath.isEmpty()
+               ? generatedSourcesRoot
+               : generatedSourcesRoot + "/" + packagePath;
+    }
+
+    /**
+     * `Foo` -> `FooBuilder`, `Outer.Foo` -> `OuterFooBuilder`.
+     */
+    public static String mapSiblingBuilderName(PsiClass recordClass) {
+        final var name = new StringBuilder("Builder");
+        for (var i = recordClass; i != null; i = i.getContainingClass()) {
+            name.insert(0, i.getName());
+        }
+        return name.toString();
+    }
+
+    private static String mapBuilderName(
+        PsiClass recordClass,
+        BuilderOptions options
+    ) {
+        return options.siblingFile()
+               ? mapSiblingBuilderName(recordClass)
+               : "Builder";
+    }
+
+    private static PsiClass findSiblingBuilderClass(PsiClass recordClass) {
+        final var recordFile = recordClass.getContainingFile();
+        if (!(recordFile instanceof PsiJavaFile javaFile)) {
+            return null;
+        }
+
+        final var packageName = javaFile.getPackageName();
+        final var simpleName = mapSiblingBuilderName(recordClass);
+        final var qualifiedName = packageName.isEmpty()
+                                  ? simpleName
+                                  : packageName + "." + simpleName;
+
+        // files next to the record first, it might not be indexed yet; then
+        // the generated-sources root, which isn't indexed unless it's marked
+        // as sources
+        for (final var directory : new PsiDirectory[]{
+            recordFile.getContainingDirectory(),
+            findGeneratedSourcesDirectory(recordClass)
+        }) {
+            final var siblingFile = directory == null
+                                    ? null
+                                    : directory.findFile(simpleName + ".java");
+            if (siblingFile != null) {
+                return findBuilderInFile(siblingFile, recordClass);
+            }
+        }
+
+        final var project = recordClass.getProject();
+        final var siblingClass = JavaPsiFacade.getInstance(project)
+            .findClass(qualifiedName, GlobalSearchScope.projectScope(project));
+        return siblingClass != null && isBuilderOf(siblingClass, recordClass)
+               ? siblingClass
+               : null;
+    }
+
+    private static PsiClass findBuilderInFile(PsiFile file, PsiClass recordClass) {
+        return file instanceof PsiJavaFile javaFile &&
+            javaFile.getClasses().length > 0 &&
+            isBuilderOf(javaFile.getClasses()[0], recordClass)
+               ? javaFile.getClasses()[0]
+               : null;
+    }
+
+    /**
+     * `Builder.Batch` stores rows column by column - one growable array per
+     * component, primitive arrays for primitive components - so adding a row
+     * allocates nothing.  Records are only materialized when read back, one
+     * at a time (`get`, `iterator`), all at once (`toList`) or in parallel
+     * through a spliterator that splits by index range; rows filtered out of
+     * a stream are never constructed.
+     */
+    public static String createBatchClass(
+        PsiClass recordClass,
+        PsiVariable[] components,
+        BuilderOptions options
+    ) {
+        final var recordName = recordClass.getName();
+
+        final var fields = new StringBuilder();
+        final var parameters = new StringJoiner(", ");
+        final var arguments = new StringJoiner(", ");
+        final var allocations = new ArrayList<ChunkableStatement>();
+        final var stores = new ArrayList<ChunkableStatement>();
+        final var growth = new ArrayList<ChunkableStatement>();
+        final var releases = new ArrayList<ChunkableStatement>();
+        var hasErasedColumns = false;
+
+        for (final var component : components) {
+            final var name = component.getName();
+            final var column = name + "Column";
+            final var type = mapValueType(component.getType());
+            final var erased = isErasedColumn(type);
+            hasErasedColumns |= erased;
+            final var columnType = erased
+                                   ? "Object[]"
+                                   : type.getCanonicalText() + "[]";
+            // `new int[n][]` for array components, not `new int[][n]`
+            final var allocation = erased
+                                   ? "new Object[initialCapacity]"
+                                   : "new " + type.getDeepComponentType().getCanonicalText() +
+                                       "[initialCapacity]" +
+                                       "[]".repeat(type.getArrayDimensions());
+            final var parameter = type.getCanonicalText() + " " + name;
+
+            fields.append("private ").append(columnType).append(" ")
+                .append(column).append(";");
+            parameters.add(parameter);
+            arguments.add(erased
+                          ? "(" + type.getCanonicalText() + ") this." + column + "[index]"
+                          : "this." + column + "[index]");
+
+            allocations.add(new ChunkableStatement(
+                null, null,
+                "this." + column + " = " + allocation + ";"));
+            stores.add(new ChunkableStatement(
+                parameter, name,
+                "this." + column + "[this.size] = " + name + ";"));
+            growth.add(new ChunkableStatement(
+                null, null,
+                "this." + column + " = java.util.Arrays.copyOf(this." +
+                    column + ", capacity);"));
+            if (!(type instanceof PsiPrimitiveType)) {
+                releases.add(new ChunkableStatement(
+                    null, null,
+                    "java.util.Arrays.fill(this." + column + ", 0, this.size, null);"));
+            }
+        }
+
+        final var sizeLimit = options.methodSizeLimit();
+        final var allocate = splitStatements(recordClass,
+            "private", "allocateColumns", "int initialCapacity", "initialCapacity",
+            allocations, sizeLimit);
+        final var store = splitStatements(recordClass,
+            "private", "storeColumns", null, null,
+            stores, sizeLimit);
+        final var grow = splitStatements(recordClass,
+            "private", "growColumns", "int capacity", "capacity",
+            growth, sizeLimit);
+        final var release = splitStatements(recordClass,
+            "private", "releaseColumns", null, null,
+            releases, sizeLimit);
+
+        return """
+            public static final class Batch implements java.lang.Iterable<%1$s> {
+                private int size;
+                private int capacity;
+                %2$s
+
+                public Batch() {
+                    this(16);
+                }
+
+                public Batch(int initialCapacity) {
+                    if (initialCapacity < 1) {
+                        throw new IllegalArgumentException(
+                            "initialCapacity must be positive: " + initialCapacity);
+                    }
+                    this.capacity = initialCapacity;
+                    %3$s
+                }
+
+                public Batch add(%4$s) {
+                    if (this.size == this.capacity) {
+                        grow();
+                    }
+                    %5$s
+                    this.size++;
+                    return this;
+                }
+
+                public int size() {
+                    return this.size;
+                }
+
+                %6$s
+                public %1$s get(int index) {
+                    java.util.Objects.checkIndex(index, this.size);
+                    return new %1$s(%7$s);
+                }
+
+                public java.util.List<%1$s> toList() {
+                    final java.util.List<%1$s> list =
+                        new java.util.ArrayList<>(this.size);
+                    for (int i = 0; i < this.size; i++) {
+                        list.add(get(i));
+                    }
+                    return list;
+                }
+
+                @Override
+                public java.util.Iterator<%1$s> iterator() {
+                    return java.util.Spliterators.iterator(spliterator());
+                }
+
+                @Override
+                public java.util.Spliterator<%1$s> spliterator() {
+                    return new RangeSpliterator(0, this.size);
+                }
+
+                public java.util.stream.Stream<%1$s> stream() {
+                    return java.util.stream.StreamSupport.stream(spliterator(), false);
+                }
+
+                public java.util.stream.Stream<%1$s> parallelStream() {
+                    return java.util.stream.StreamSupport.stream(spliterator(), true);
+                }
+
+                public void clear() {
+                    %8$s
+                    this.size = 0;
+                }
+
+                private void grow() {
+                    final int capacity = this.size + Math.max(1, this.size >> 1);
+                    %9$s
+                    this.capacity = capacity;
+                }
+
+                private final class RangeSpliterator
+                    implements java.util.Spliterator<%1$s> {
+                    private int index;
+                    private final int fence;
+
+                    private RangeSpliterator(int index, int fence) {
+                        this.index = index;
+                        this.fence = fence;
+                    }
+
+                    @Override
+                    public boolean tryAdvance(
+                        java.util.function.Consumer<? super %1$s> action
+                    ) {
+                        if (this.index >= this.fence) {
+                            return false;
+                        }
+                        action.accept(get(this.index++));
+                        return true;
+                    }
+
+                    @Override
+                    public java.util.Spliterator<%1$s> trySplit() {
+                        final int middle = (this.index + this.fence) >>> 1;
+                        if (middle <= this.index) {
+                            return null;
+                        }
+                        final RangeSpliterator prefix =
+                            new RangeSpliterator(this.index, middle);
+                        this.index = middle;
+                        return prefix;
+                    }
+
+                    @Override
+                    public long estimateSize() {
+                        return this.fence - this.index;
+                    }
+
+                    @Override
+                    public int characteristics() {
+                        return ORDERED | SIZED | SUBSIZED | NONNULL;
+                    }
+                }
+
+                %10$s
+            }
+            """.formatted(
+            recordName,
+            fields,
+            allocate.body(),
+            parameters,
+            store.body(),
+            hasErasedColumns ? "@SuppressWarnings(\"unchecked\")" : "",
+            arguments,
+            release.body(),
+            grow.body(),
+            allocate.helpers() + store.helpers() + grow.helpers() + release.helpers());
+    }
+
+    /**
+     * A per-component statement that {@link #splitStatements} may move into
+     * a helper method, with the parameter (if any) it needs from the method
+     * it was written for.
+     */
+    public record ChunkableStatement(
+        String parameter,
+        String argument,
+        String statement
+    ) { }
+
+    /**
+     * Statements for the method body, plus any helper methods that need to
+     * be added to the same class.
+     */
+    public record SplitStatements(
+        String body,
+        String helpers
+    ) { }
+
+    /**
+     * Keeps generated methods inside HotSpot's JIT limits for very wide
+     * records.
+     * <p>
+     * If the estimated bytecode of the statements fits in `sizeLimit` they
+     * are returned as-is.  Otherwise they are packed in order into helpers
+     * (declared with `helperModifiers`) named `helperName0`, `helperName1`...
+     * that each fit the limit, and the body just calls them.  `commonParameter` is passed to every
+     * helper, the statements' own parameters only to the helper that uses
+     * them.
+     * <p>
+     * Each chunk is also charged for its call, {@link BytecodeEstimator#CALL_COST}
+     * plus a load per argument, so the limit holds however the calls add up.
+     */
+    public static SplitStatements splitStatements(
+        PsiClass context,
+        String helperModifiers,
+        String helperName,
+        String commonParameter,
+        String commonArgument,
+        List<ChunkableStatement> statements,
+        int sizeLimit
+    ) {
+        final var elementFactory =
+            JavaPsiFacade.getElementFactory(context.getProject());
+
+        final var sizes = new int[statements.size()];
+        var totalSize = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = BytecodeEstimator.estimate(
+                elementFactory.createStatementFromText(
+                    statements.get(i).statement(), context));
+            totalSize += sizes[i];
+        }
+
+        if (totalSize <= sizeLimit) {
+            final var body = new StringBuilder();
+            statements.forEach(i -> body.append(i.statement()));
+            return new SplitStatements(body.toString(), "");
+        }
+
+        // `xload n`, 2 bytes once past the first 4 slots
+        final var argumentCost = 2;
+        final var commonArguments = commonArgument == null
+                                    ? 0
+                                    : commonArgument.split(",").length;
+
+        final var body = new StringBuilder();
+        final var helpers = new StringBuilder();
+        var chunk = 0;
+        var start = 0;
+        while (start < sizes.length) {
+            // trailing `return`, and the call with the common arguments
+            var chunkSize = 1 + BytecodeEstimator.CALL_COST +
+                commonArguments * argumentCost;
+            var end = start;
+            while (end < sizes.length) {
+                final var statementSize = sizes[end] +
+                    (statements.get(end).parameter() == null ? 0 : argumentCost);
+                if (end > start && chunkSize + statementSize > sizeLimit) {
+                    break;
+                }
+                chunkSize += statementSize;
+                end++;
+            }
+
+            final var helperParameters = new StringJoiner(", ");
+            final var helperArguments = new StringJoiner(", ");
+            if (commonParameter != null) {
+                helperParameters.add(commonParameter);
+                helperArguments.add(commonArgument);
+            }
+            final var helperBody = new StringBuilder();
+            for (final var statement : statements.subList(start, end)) {
+                if (statement.parameter() != null) {
+                    helperParameters.add(statement.parameter());
+                    helperArguments.add(statement.argument());
+                }
+                helperBody.append(statement.statement());
+            }
+
+            body.append(helperName).append(chunk)
+                .append("(").append(helperArguments).append(");");
+            helpers.append(helperModifiers).append(" void ")
+                .append(helperName).append(chunk)
+                .append("(").append(helperParameters).append(") {")
+                .append(helperBody)
+                .append("}");
+
+            chunk++;
+            start = end;
+        }
+
+        return new SplitStatements(body.toString(), helpers.toString());
+    }
+
+    /**
+     * The codec handles fixed-size values and a variable-length tail only:
+     * primitives, Strings, enums, and records that already have a generated
+     * codec of their own.
+     */
+    public static boolean isCodecEligible(
+        PsiClass recordClass,
+        PsiVariable[] components
+    ) {
+        if (!recordClass.isRecord()) {
+            return false;
+        }
+
+        for (final var component : components) {
+            final var type = component.getType();
+            if (type instanceof PsiPrimitiveType || isStringType(type)) {
+                continue;
+            }
+            if (!(type instanceof PsiClassType classType)) {
+                return false;
+            }
+
+            final var resolved = classType.resolve();
+            if (resolved == null) {
+                return false;
+            }
+            if (resolved.isEnum()) {
+                continue;
+            }
+            if (resolved.isRecord() && !resolved.equals(recordClass)) {
+                final var nestedBuilder = findBuilderClass(resolved);
+                if (nestedBuilder != null &&
+                    nestedBuilder.findInnerClassByName("View", false) != null
+                ) {
+                    continue;
+                }
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    static boolean isStringType(PsiType type) {
+        // short name for the tests without a JDK, see createFieldDeclaration()
+        return type.equalsToText("java.lang.String") ||
+            type.equalsToText("String");
+    }
+
+    /**
+     * Fixed-layout binary codec, for shipping records through memory-mapped
+     * files without a serialization library.
+     * <p>
+     * Layout, in the buffer's byte order: the total encoded length (int),
+     * then one fixed-size slot per component in component order, then a
+     * tail holding variable-length data.  Primitives are stored in their
+     * slot directly, enums as their ordinal (-1 for null), Strings and
+     * nested records as an (offset, length) pair of ints pointing into the
+     * tail, relative to the start of the record (-1, -1 for null).
+     * <p>
+     * `View` reads components straight out of the buffer using the record's
+     * accessor names, so reading a primitive or enum allocates nothing.
+     * For JDK 22+ projects it can also be created over a `MemorySegment`.
+     */
+    public static String createCodecMembers(
+        PsiClass recordClass,
+        PsiVariable[] components,
+        BuilderOptions options
+    ) {
+        final var recordName = recordClass.getName();
+
+        final var writes = new ArrayList<ChunkableStatement>();
+        final var copies = new ArrayList<ChunkableStatement>();
+        final var accessors = new StringBuilder();
+        final var enumValues = new StringBuilder();
+        var hasStrings = false;
+        // the encoded length comes first
+        var slot = 4;
+
+        for (final var component : components) {
+            final var name = component.getName();
+            final var type = component.getType();
+            final var typeText = type.getCanonicalText();
+            final var writeAt = "start + " + slot;
+            final var readAt = "this.offset + " + slot;
+            final var value = "record." + name + "()";
+
+            var accessorType = typeText;
+            final String write;
+            final String read;
+            var copy = "builder." + name + "(" + name + "());";
+
+            if (PsiTypes.booleanType().equals(type)) {
+                write = "buffer.put(" + writeAt + ", (byte) (" + value + " ? 1 : 0));";
+                read = "return this.buffer.get(" + readAt + ") != 0;";
+                slot += 1;
+            }
+            else if (type instanceof PsiPrimitiveType) {
+                final var accessor = mapBufferAccessor(type);
+                write = "buffer.put" + accessor + "(" + writeAt + ", " + value + ");";
+                read = "return this.buffer.get" + accessor + "(" + readAt + ");";
+                slot += mapPrimitiveSize(type);
+            }
+            else if (isStringType(type)) {
+                hasStrings = true;
+                write = "writeString(buffer, " + writeAt + ", start, " + value + ");";
+                read = "final int length = this.buffer.getInt(" + readAt + " + 4);" +
+                    "if (length < 0) { return null; }" +
+                    "final byte[] bytes = new byte[length];" +
+                    "this.buffer.get(this.offset + this.buffer.getInt(" + readAt + "), bytes);" +
+                    "return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);";
+                slot += 8;
+            }
+            else if (requireNonNull(((PsiClassType) type).resolve()).isEnum()) {
+                enumValues.append("private static final ").append(typeText)
+                    .append("[] ").append(name).append("Values = ")
+                    .append(typeText).append(".values();");
+                write = "buffer.putInt(" + writeAt + ", " + value + " == null ? -1 : " +
+                    value + ".ordinal());";
+                read = "final int ordinal = this.buffer.getInt(" + readAt + ");" +
+                    "return ordinal < 0 ? null : " + name + "Values[ordinal];";
+                slot += 4;
+            }
+            else {
+                // a record with its own codec, see isCodecEligible()
+                final var nestedBuilder = requireNonNull(findBuilderClass(
+                    requireNonNull(((PsiClassType) type).resolve())));
+                final var nestedBuilderName = nestedBuilder.getQualifiedName();
+                accessorType = nestedBuilderName + ".View";
+                write = "if (" + value + " == null) {" +
+                    "buffer.putLong(" + writeAt + ", -1L);" +
+                    "} else {" +
+                    "final int nestedStart = buffer.position();" +
+                    nestedBuilderName + ".writeTo(" + value + ", buffer);" +
+                    "buffer.putInt(" + writeAt + ", nestedStart - start);" +
+                    "buffer.putInt(" + writeAt + " + 4, buffer.position() - nestedStart);" +
+                    "}";
+                read = "final int nestedOffset = this.buffer.getInt(" + readAt + ");" +
+                    "return nestedOffset < 0 ? null : new " + accessorType +
+                    "(this.buffer, this.offset + nestedOffset);";
+                copy = "{" +
+                    "final " + accessorType + " " + name + " = " + name + "();" +
+                    "builder." + name + "(" + name + " == null ? null : " +
+                    name + ".toRecord());" +
+                    "}";
+                slot += 8;
+            }
+
+            writes.add(new ChunkableStatement(null, null, write));
+            copies.add(new ChunkableStatement(null, null, copy));
+            accessors.append("public ").append(accessorType).append(" ")
+                .append(name).append("() {").append(read).append("}");
+        }
+
+        final var sizeLimit = options.methodSizeLimit();
+        final var write = splitStatements(recordClass,
+            "private static", "writeComponents",
+            recordName + " record, java.nio.ByteBuffer buffer, int start",
+            "record, buffer, start",
+            writes, sizeLimit);
+        final var builderName = mapBuilderName(recordClass, options);
+        final var copy = splitStatements(recordClass,
+            "private", "copyComponents", builderName + " builder", "builder",
+            copies, sizeLimit);
+
+        final var writeString = !hasStrings ? "" : """
+            private static void writeString(
+                java.nio.ByteBuffer buffer,
+                int slot,
+                int start,
+                String value
+            ) {
+                if (value == null) {
+                    buffer.putLong(slot, -1L);
+                    return;
+                }
+                final byte[] bytes =
+                    value.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                buffer.putInt(slot, buffer.position() - start);
+                buffer.putInt(slot + 4, bytes.length);
+                buffer.put(bytes);
+            }
+            """;
+
+        final var memorySegmentFactory =
+            PsiUtil.getLanguageLevel(recordClass).toJavaVersion().feature < 22
+            ? ""
+            : """
+                public static View of(
+                    java.lang.foreign.MemorySegment segment,
+                    long offset,
+                    java.nio.ByteOrder order
+                ) {
+                    return new View(segment.asSlice(offset).asByteBuffer().order(order), 0);
+                }
+                """;
+
+        return """
+            public static final int ENCODED_HEADER_SIZE = %2$d;
+
+            public static void writeTo(%1$s record, java.nio.ByteBuffer buffer) {
+                final int start = buffer.position();
+                buffer.position(start + ENCODED_HEADER_SIZE);
+                %3$s
+                buffer.putInt(start, buffer.position() - start);
+            }
+
+            public static %1$s readFrom(java.nio.ByteBuffer buffer) {
+                final View view = new View(buffer, buffer.position());
+                final %1$s record = view.toRecord();
+                buffer.position(buffer.position() + view.encodedLength());
+                return record;
+            }
+
+            %4$s
+            %5$s
+
+            public static final class View {
+                %6$s
+                private final java.nio.ByteBuffer buffer;
+                private final int offset;
+
+                public View(java.nio.ByteBuffer buffer, int offset) {
+                    this.buffer = buffer;
+                    this.offset = offset;
+                }
+
+                %7$s
+                public int encodedLength() {
+                    return this.buffer.getInt(this.offset);
+                }
+
+                %8$s
+
+                public %1$s toRecord() {
+                    final %11$s builder = new %11$s();
+                    %9$s
+                    return builder.build();
+                }
+
+                %10$s
+            }
+            """.formatted(
+            recordName,
+            slot,
+            write.body(),
+            writeString,
+            write.helpers(),
+            enumValues,
+            memorySegmentFactory,
+            accessors,
+            copy.body(),
+            copy.helpers(),
+            builderName);
+    }
+
+    /**
+     * `ByteBuffer` has getInt/putInt etc, except for byte which is get/put.
+     */
+    private static String mapBufferAccessor(PsiType type) {
+        if (PsiTypes.byteType().equals(type)) {
+            return "";
+        }
+        final var name = type.getCanonicalText();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static int mapPrimitiveSize(PsiType type) {
+        if (PsiTypes.longType().equals(type) || PsiTypes.doubleType().equals(type)) {
+            return 8;
+        }
+        if (PsiTypes.intType().equals(type) || PsiTypes.floatType().equals(type)) {
+            return 4;
+        }
+        if (PsiTypes.shortType().equals(type) || PsiTypes.charType().equals(type)) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * `writeTo(ByteBuffer)` on the record, delegating to the static codec
+     * method on the builder.
+     */
+    public static PsiMethod createRecordWriteToMethod(PsiClass recordClass) {
+        return JavaPsiFacade.getElementFactory(recordClass.getProject())
+            .createMethodFromText("""
+                public void writeTo(java.nio.ByteBuffer buffer) {
+                    Builder.writeTo(this, buffer);
+                }
+                """, recordClass);
+    }
+
+    /**
+     * Varargs components are stored as the array type they really are.
+     */
+    private static PsiType mapValueType(PsiType type) {
+        return type instanceof PsiEllipsisType ellipsisType
+               ? ellipsisType.toArrayType()
+               : type;
+    }
+
+    /**
+     * Java can't create arrays of parameterized types or type variables, so
+     * those columns are stored as `Object[]` and cast on the way out.
+     */
+    private static boolean isErasedColumn(PsiType type) {
+        if (!(type.getDeepComponentType() instanceof PsiClassType classType)) {
+            return false;
+        }
+        return classType.hasParameters() ||
+            classType.resolve() instanceof PsiTypeParameter;
+    }
+
+    /**
+     * Finds the builder that Fruitfly generated for the given record, either
+     * nested in the record or in a sibling `FooBuilder` file - as opposed to
+     * some other class that happens to be called Builder.
+     */
+    public static PsiClass findBuilderClass(PsiClass recordClass) {
+        final var builderClass =
+            recordClass.findInnerClassByName("Builder", false);
+        if (builderClass != null && isBuilderOf(builderClass, recordClass)) {
+            return builderClass;
+        }
+
+        return findSiblingBuilderClass(recordClass);
+    }
+
+    /**
+     * The record that a Fruitfly builder builds, for either layout.
+     */
+    public static PsiClass findBuiltRecord(PsiClass builderClass) {
+        final var recordClass = builderClass.getContainingClass() != null
+                                ? builderClass.getContainingClass()
+                                : stream(builderClass.findMethodsByName("build", false))
+                                    .filter(i -> i.getParameterList().isEmpty())
+                                    .map(PsiMethod::getReturnType)
+                                    .filter(PsiClassType.class::isInstance)
+                                    .map(i -> ((PsiClassType) i).resolve())
+                                    .findFirst()
+                                    .orElse(null);
+
+        return recordClass != null &&
+            builderClass.equals(findBuilderClass(recordClass))
+               ? recordClass
+               : null;
+    }
+
+    /**
+     * Recognised by its static factory method and its `build()` method.
+     */
+    private static boolean isBuilderOf(
+        PsiClass builderClass,
+        PsiClass recordClass
+    ) {
+        final var factoryMethodName =
+            decapitalize(String.valueOf(recordClass.getName()));
+        final var hasFactoryMethod = stream(
+            builderClass.findMethodsByName(factoryMethodName, false))
+            .anyMatch(i -> i.hasModifierProperty(PsiModifier.STATIC));
+        final var hasBuildMethod = stream(
+            builderClass.findMethodsByName("build", false))
+            .anyMatch(i -> i.getParameterList().isEmpty());
+
+        return hasFactoryMethod && hasBuildMethod;
+    }
+
+    /**
+     * True when the record has a Fruitfly `Builder` that no longer lines up
+     * with the record components: a setter whose component was removed,
+     * renamed or had its type changed, or a `build()` that doesn't pass the
+     * current components - e.g. after one was added.
+     * <p>
+     * A real subset builder, one whose `build()` passes some of the
+     * components to a constructor that still accepts them, isn't stale just
+     * because it doesn't cover the others.
+     */
+    public static boolean isBuilderStale(PsiClass recordClass) {
+        final var builderClass = findBuilderClass(recordClass);
+        if (builderClass == null || !recordClass.isRecord()) {
+            return false;
+        }
+
+        final var componentTypes = new HashMap<String, String>();
+        for (final var component : recordClass.getRecordComponents()) {
+            componentTypes.put(
+                component.getName(),
+                component.getType().getCanonicalText());
+        }
+
+        for (final var method : builderClass.getMethods()) {
+            if (isSetter(builderClass, method)) {
+                final var setterType = method.getParameterList().getParameters()[0]
+                    .getType().getCanonicalText();
+                if (!setterType.equals(componentTypes.get(method.getName()))) {
+                    return true;
+                }
+            }
+        }
+
+        final var builtNames = mapBuiltComponentNames(builderClass);
+        if (builtNames == null) {
+            // hand-edited `build()`, the setters are all we can go by
+            return false;
+        }
+
+        return !builtNames.equals(mapRecordComponentNames(recordClass)) &&
+            !isSubsetBuilder(recordClass, builderClass, builtNames);
+    }
+
+    /**
+     * The components regenerating an existing builder should use: all of
+     * them, unless it's a real subset builder (see {@link #isBuilderStale}),
+     * in which case its subset, as far as it still exists in the record.
+     */
+    public static List<String> mapBuilderComponentNames(
+        PsiClass recordClass,
+        PsiClass builderClass
+    ) {
+        final var componentNames = mapRecordComponentNames(recordClass);
+        final var builtNames = mapBuiltComponentNames(builderClass);
+        if (builtNames != null) {
+            return isSubsetBuilder(recordClass, builderClass, builtNames)
+                   ? componentNames.stream().filter(builtNames::contains).toList()
+                   : componentNames;
+        }
+
+        final var setterNames = stream(builderClass.getMethods())
+            .filter(i -> isSetter(builderClass, i))
+            .map(PsiMethod::getName)
+            .toList();
+        return componentNames.stream()
+            .filter(setterNames::contains)
+            .toList();
+    }
+
+    /**
+     * Some, not all, of the components, passed to a constructor that still
+     * takes them.  After a component is added, the old all-component call
+     * no longer resolves, so that builder counts as a complete one.
+     */
+    private static boolean isSubsetBuilder(
+        PsiClass recordClass,
+        PsiClass builderClass,
+        List<String> builtNames
+    ) {
+        final var componentNames = mapRecordComponentNames(recordClass);
+        if (builtNames.isEmpty() || builtNames.size() >= componentNames.size() ||
+            !componentNames.containsAll(builtNames)
+        ) {
+            return false;
+        }
+
+        final var constructorCall = findBuildConstructorCall(builderClass);
+        return constructorCall != null &&
+            constructorCall.resolveMethodGenerics().isValidResult();
+    }
+
+    /**
+     * The builder fields `build()` passes to the record's constructor, in
+     * order: `return new Foo(this.a, 0, this.b)` gives `[a, b]`.
+     *
+     * @return null when `build()` doesn't end in a constructor call
+     */
+    private static List<String> mapBuiltComponentNames(PsiClass builderClass) {
+        final var constructorCall = findBuildConstructorCall(builderClass);
+        if (constructorCall == null) {
+            return null;
+        }
+
+        final var names = new ArrayList<String>();
+        for (final var argument : requireNonNull(constructorCall.getArgumentList())
+            .getExpressions()
+        ) {
+            if (argument instanceof PsiReferenceExpression reference &&
+                (reference.getQualifierExpression() == null ||
+                    reference.getQualifierExpression() instanceof PsiThisExpression) &&
+                reference.resolve() instanceof PsiField field &&
+                builderClass.equals(field.getContainingClass())
+            ) {
+                names.add(field.getName());
+            }
+        }
+        return names;
+    }
+
+    private static PsiNewExpression findBuildConstructorCall(PsiClass builderClass) {
+        for (final var method : builderClass.findMethodsByName("build", false)) {
+            final var body = method.getBody();
+            if (!method.getParameterList().isEmpty() || body == null) {
+                continue;
+            }
+
+            final var statements = body.getStatements();
+            if (statements.length > 0 &&
+                statements[statements.length - 1] instanceof PsiReturnStatement returnStatement &&
+                returnStatement.getReturnValue() instanceof PsiNewExpression newExpression &&
+                newExpression.getArgumentList() != null
+            ) {
+                return newExpression;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSetter(PsiClass builderClass, PsiMethod method) {
+        if (method.hasModifierProperty(PsiModifier.STATIC) ||
+            method.getParameterList().getParametersCount() != 1
+        ) {
+            return false;
+        }
+
+        final var returnType = method.getReturnType();
+        return returnType instanceof PsiClassType classType &&
+            builderClass.equals(classType.resolve());
+    }
+
+    /**
+     * Works out which {@link BuilderOptions} an existing builder was
+     * generated with, so that regenerating it keeps the same structures.
+     */
+    public static BuilderOptions detectOptions(PsiClass builderClass) {
+        return BuilderOptions.builderOptions()
+            .canonical(
+                builderClass.findMethodsByName("buildCanonical", false).length > 0)
+            .batch(builderClass.findInnerClassByName("Batch", false) != null)
+            .codec(builderClass.findInnerClassByName("View", false) != null)
+            .jfr(builderClass.findInnerClassByName("BuildEvent", false) != null)
+            .siblingFile(builderClass.getContainingClass() == null)
+            .build();
     }
 
     /**
@@ -211,17 +2029,23 @@ public class BuilderGenerator {
         PsiClass recordClass,
         PsiElement builderClass
     ) {
-        final var project = recordClass.getProject();
-        final var file = recordClass.getContainingFile();
+        formatGeneratedCode(recordClass.getContainingFile(), builderClass);
+    }
+
+    private static void formatGeneratedCode(
+        PsiFile file,
+        PsiElement generated
+    ) {
+        final var project = file.getProject();
 
         // 1. Внедряем статический импорт до форматирования
         if (file instanceof PsiJavaFile javaFile) {
             addOptionalEmptyStaticImport(javaFile, project);
         }
 
-        final var styleManager = JavaCodeStyleManager.getInstance(recordClass.getProject());
-        styleManager.shortenClassReferences(builderClass);
-        styleManager.optimizeImports(recordClass.getContainingFile());
+        final var styleManager = JavaCodeStyleManager.getInstance(project);
+        styleManager.shortenClassReferences(generated);
+        styleManager.optimizeImports(file);
     }
 
     private static void addOptionalEmptyStaticImport(PsiJavaFile file, com.intellij.openapi.project.Project project) {
@@ -0,0 +1,101 @@
+package fruitfly.psi;
+
+/**
+ * Switches for the optional structures that {@link BuilderGenerator} can emit
+ * alongside the plain `Builder`.
+ * <p>
+ * Everything is off by default, so {@link #defaults()} generates exactly the
+ * builder Fruitfly has always generated.
+ *
+ * @param canonical emit `buildCanonical()`, which returns a shared instance
+ *                  from a bounded canonicalization cache
+ * @param batch     emit `Builder.Batch`, a columnar (struct-of-arrays)
+ *                  container for constructing records in bulk
+ * @param codec     emit a fixed-layout `ByteBuffer` codec (`writeTo`,
+ *                  `Builder.readFrom`) and a flyweight `Builder.View`
+ * @param jfr       emit a JFR `BuildEvent`, committed from `build()` when
+ *                  the event is enabled
+ * @param siblingFile generate `FooBuilder.java` instead of nesting `Builder`
+ *                  in the record, leaving the record's source untouched
+ * @param generatedSourcesRoot directory, relative to the module's content
+ *                  root, to create new sibling builder files in; `null`
+ *                  puts them next to the record
+ * @param methodSizeLimit estimated bytecode size above which generated
+ *                  per-component work is split into helper methods, see
+ *                  {@link BytecodeEstimator}
+ */
+public record BuilderOptions(
+    boolean canonical,
+    boolean batch,
+    boolean codec,
+    boolean jfr,
+    boolean siblingFile,
+    String generatedSourcesRoot,
+    int methodSizeLimit
+) {
+
+    public static BuilderOptions defaults() {
+        return builderOptions().build();
+    }
+
+    public static Builder builderOptions() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private boolean canonical;
+        private boolean batch;
+        private boolean codec;
+        private boolean jfr;
+        private boolean siblingFile;
+        private String generatedSourcesRoot;
+        private int methodSizeLimit = BytecodeEstimator.FREQ_INLINE_SIZE;
+
+        public Builder canonical(boolean canonical) {
+            this.canonical = canonical;
+            return this;
+        }
+
+        public Builder batch(boolean batch) {
+            this.batch = batch;
+            return this;
+        }
+
+        public Builder codec(boolean codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        public Builder jfr(boolean jfr) {
+            this.jfr = jfr;
+            return this;
+        }
+
+        public Builder siblingFile(boolean siblingFile) {
+            this.siblingFile = siblingFile;
+            return this;
+        }
+
+        public Builder generatedSourcesRoot(String generatedSourcesRoot) {
+            this.generatedSourcesRoot = generatedSourcesRoot;
+            return this;
+        }
+
+        public Builder methodSizeLimit(int methodSizeLimit) {
+            this.methodSizeLimit = methodSizeLimit;
+            return this;
+        }
+
+        public BuilderOptions build() {
+            return new BuilderOptions(
+                this.canonical,
+                this.batch,
+                this.codec,
+                this.jfr,
+                this.siblingFile,
+                this.generatedSourcesRoot,
+                this.methodSizeLimit);
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+package fruitfly.psi;
+
+import com.intellij.psi.JavaRecursiveElementWalkingVisitor;
+import com.intellij.psi.JavaTokenType;
+import com.intellij.psi.PsiArrayAccessExpression;
+import com.intellij.psi.PsiAssignmentExpression;
+import com.intellij.psi.PsiConditionalExpression;
+import com.intellij.psi.PsiDoWhileStatement;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiForStatement;
+import com.intellij.psi.PsiForeachStatement;
+import com.intellij.psi.PsiIfStatement;
+import com.intellij.psi.PsiLambdaExpression;
+import com.intellij.psi.PsiLiteralExpression;
+import com.intellij.psi.PsiLocalVariable;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiMethodCallExpression;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.PsiNewExpression;
+import com.intellij.psi.PsiParameter;
+import com.intellij.psi.PsiPolyadicExpression;
+import com.intellij.psi.PsiPostfixExpression;
+import com.intellij.psi.PsiPrefixExpression;
+import com.intellij.psi.PsiReferenceExpression;
+import com.intellij.psi.PsiReturnStatement;
+import com.intellij.psi.PsiSwitchStatement;
+import com.intellij.psi.PsiSynchronizedStatement;
+import com.intellij.psi.PsiThisExpression;
+import com.intellij.psi.PsiThrowStatement;
+import com.intellij.psi.PsiTryStatement;
+import com.intellij.psi.PsiTypeCastExpression;
+import com.intellij.psi.PsiTypes;
+import com.intellij.psi.PsiWhileStatement;
+
+/**
+ * Rough, deliberately pessimistic estimate of how many bytes of bytecode
+ * javac will produce for a piece of (generated) source.
+ * <p>
+ * HotSpot never JIT-compiles methods bigger than {@link #HUGE_METHOD_LIMIT}
+ * bytes and won't inline hot methods bigger than {@link #FREQ_INLINE_SIZE}
+ * bytes, so {@link BuilderGenerator} uses this to decide when to split
+ * per-component work into helper methods.  It only needs to be accurate
+ * enough for the straight-line code Fruitfly emits - it's not a compiler.
+ */
+public class BytecodeEstimator {
+
+    /** HotSpot `-XX:HugeMethodLimit` default */
+    public static final int HUGE_METHOD_LIMIT = 8000;
+
+    /** HotSpot `-XX:FreqInlineSize` default (x86_64) */
+    public static final int FREQ_INLINE_SIZE = 325;
+
+    /**
+     * cost of calling a helper method: `aload_0`, `invokevirtual`, plus a
+     * load per argument (counted separately)
+     */
+    public static final int CALL_COST = 4;
+
+    public static int estimate(PsiElement element) {
+        final var visitor = new EstimatingVisitor();
+        element.accept(visitor);
+        return visitor.size;
+    }
+
+    private static class EstimatingVisitor
+        extends JavaRecursiveElementWalkingVisitor {
+
+        private int size;
+
+        @Override
+        public void visitMethod(PsiMethod method) {
+            // implicit `return` at the end of void methods
+            size += 1;
+            super.visitMethod(method);
+        }
+
+        @Override
+        public void visitReferenceExpression(PsiReferenceExpression expression) {
+            super.visitReferenceExpression(expression);
+            if (expression.getParent() instanceof PsiMethodCallExpression call &&
+                call.getMethodExpression() == expression
+            ) {
+                // counted by visitMethodCallExpression
+                return;
+            }
+
+            final var target = expression.resolve();
+            if (target instanceof PsiField field) {
+                // getfield/putfield/getstatic + `aload_0` for implicit `this`
+                final var isStatic = field.hasModifierProperty(PsiModifier.STATIC);
+                size += 3;
+                if (!isStatic && expression.getQualifierExpression() == null) {
+                    size += 1;
+                }
+            }
+            else if (target instanceof PsiLocalVariable ||
+                target instanceof PsiParameter
+            ) {
+                // xload n, 2 bytes once past the first 4 slots
+                size += 2;
+            }
+            else if (target == null) {
+                // unresolved: assume the worst of the above
+                size += 4;
+            }
+            // class and package qualifiers cost nothing
+        }
+
+        @Override
+        public void visitThisExpression(PsiThisExpression expression) {
+            super.visitThisExpression(expression);
+            size += 1;
+        }
+
+        @Override
+        public void visitMethodCallExpression(PsiMethodCallExpression expression) {
+            super.visitMethodCallExpression(expression);
+            // invoke*, plus `aload_0` if implicitly on `this`
+            size += 3;
+            if (expression.getMethodExpression().getQualifierExpression() == null) {
+                size += 1;
+            }
+        }
+
+        @Override
+        public void visitNewExpression(PsiNewExpression expression) {
+            super.visitNewExpression(expression);
+            // new + dup + invokespecial, or (multi)anewarray
+            size += expression.isArrayCreation() ? 4 : 7;
+        }
+
+        @Override
+        public void visitArrayAccessExpression(PsiArrayAccessExpression expression) {
+            super.visitArrayAccessExpression(expression);
+            size += 1;
+        }
+
+        @Override
+        public void visitAssignmentExpression(PsiAssignmentExpression expression) {
+            super.visitAssignmentExpression(expression);
+            // store, or load/op/store for compound assignment
+            size += expression.getOperationTokenType() == JavaTokenType.EQ
+                    ? 1
+                    : 4;
+        }
+
+        @Override
+        public void visitLiteralExpression(PsiLiteralExpression expression) {
+            super.visitLiteralExpression(expression);
+            final var type = expression.getType();
+            size += PsiTypes.longType().equals(type) || PsiTypes.doubleType().equals(type) ? 3 : 2;
+        }
+
+        @Override
+        public void visitTypeCastExpression(PsiTypeCastExpression expression) {
+            super.visitTypeCastExpression(expression);
+            size += 3;
+        }
+
+        @Override
+        public void visitPolyadicExpression(PsiPolyadicExpression expression) {
+            super.visitPolyadicExpression(expression);
+            // one op per operator, comparisons and && / || also branch
+            size += 4 * (expression.getOperands().length - 1);
+        }
+
+        @Override
+        public void visitPrefixExpression(PsiPrefixExpression expression) {
+            super.visitPrefixExpression(expression);
+            size += 4;
+        }
+
+        @Override
+        public void visitPostfixExpression(PsiPostfixExpression expression) {
+            super.visitPostfixExpression(expression);
+            size += 4;
+        }
+
+        @Override
+        public void visitConditionalExpression(PsiConditionalExpression expression) {
+            super.visitConditionalExpression(expression);
+            size += 6;
+        }
+
+        @Override
+        public void visitLambdaExpression(PsiLambdaExpression expression) {
+            // the body is compiled into a separate synthetic method
+            size += 5;
+        }
+
+        @Override
+        public void visitLocalVariable(PsiLocalVariable variable) {
+            super.visitLocalVariable(variable);
+            if (variable.hasInitializer()) {
+                size += 2;
+            }
+        }
+
+        @Override
+        public void visitIfStatement(PsiIfStatement statement) {
+            super.visitIfStatement(statement);
+            size += statement.getElseBranch() == null ? 3 : 6;
+        }
+
+        @Override
+        public void visitForStatement(PsiForStatement statement) {
+            super.visitForStatement(statement);
+            size += 6;
+        }
+
+        @Override
+        public void visitForeachStatement(PsiForeachStatement statement) {
+            super.visitForeachStatement(statement);
+            // iterator()/hasNext()/next() or array index bookkeeping
+            size += 20;
+        }
+
+        @Override
+        public void visitWhileStatement(PsiWhileStatement statement) {
+            super.visitWhileStatement(statement);
+            size += 6;
+        }
+
+        @Override
+        public void visitDoWhileStatement(PsiDoWhileStatement statement) {
+            super.visitDoWhileStatement(statement);
+            size += 3;
+        }
+
+        @Override
+        public void visitSwitchStatement(PsiSwitchStatement statement) {
+            super.visitSwitchStatement(statement);
+            // tableswitch header, the cases are counted as statements
+            size += 16;
+        }
+
+        @Override
+        public void visitSynchronizedStatement(PsiSynchronizedStatement statement) {
+            super.visitSynchronizedStatement(statement);
+            // monitorenter/exit on both normal and exceptional paths
+            size += 16;
+        }
+
+        @Override
+        public void visitTryStatement(PsiTryStatement statement) {
+            super.visitTryStatement(statement);
+            size += 10;
+        }
+
+        @Override
+        public void visitReturnStatement(PsiReturnStatement statement) {
+            super.visitReturnStatement(statement);
+            size += 1;
+        }
+
+        @Override
+        public void visitThrowStatement(PsiThrowStatement statement) {
+            super.visitThrowStatement(statement);
+            size += 1;
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package fruitfly.psi;
+
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.PsiPrimitiveType;
+import com.intellij.psi.PsiRecordComponent;
+import com.intellij.psi.PsiType;
+import com.intellij.psi.codeStyle.CodeStyleManager;
+import com.intellij.psi.codeStyle.JavaCodeStyleManager;
+import com.intellij.psi.util.PsiTypesUtil;
+import com.intellij.psi.util.TypeConversionUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import static com.intellij.openapi.util.text.StringUtil.decapitalize;
+import static fruitfly.psi.BuilderGenerator.findBuilderClass;
+import static fruitfly.psi.BuilderGenerator.isOptionalType;
+import static fruitfly.psi.BuilderGenerator.isStringType;
+import static java.util.Arrays.stream;
+
+/**
+ * Generates a static `toTarget(Source source)` method on a source record that
+ * maps it into a similarly-shaped target record - the compile-time
+ * replacement for reflection-based runtime mappers.
+ * <p>
+ * The generated body is straight accessor-to-setter (or accessor-to-argument)
+ * copies: no reflection and no intermediate maps, so the JIT can inline it
+ * like any hand-written code.
+ */
+public class MapperGenerator {
+
+    /**
+     * How one target component gets its value.
+     *
+     * @param target     the target record's component
+     * @param source     the source component it's copied from
+     * @param expression reads `source`'s component, converted to the target's
+     *                   type if needed
+     * @param converted  whether `expression` converts the value (a narrowing
+     *                   cast, unboxing or `String.valueOf()`) rather than
+     *                   copying it
+     */
+    public record ComponentMapping(
+        PsiRecordComponent target,
+        PsiRecordComponent source,
+        String expression,
+        boolean converted
+    ) { }
+
+    /**
+     * What {@link #generateMapper} wants the user to check.
+     *
+     * @param converted the mappings that convert values
+     * @param unmapped  target components the constructor got a placeholder
+     *                  for (`null`, `0`, `false` or `Optional.empty()`);
+     *                  empty when the builder fills the target, as it keeps
+     *                  its own defaults
+     */
+    public record MapperResult(
+        List<ComponentMapping> converted,
+        List<PsiRecordComponent> unmapped
+    ) { }
+
+    /**
+     * Pairs target components with source components of the same name whose
+     * type is the same, assignable, or convertible.  Unmatched target
+     * components are left out, see {@link #mapCandidates}.
+     *
+     * @return target component name -> source component name, in target
+     * component order
+     */
+    public static Map<String, String> matchComponents(
+        PsiClass sourceRecord,
+        PsiClass targetRecord
+    ) {
+        final var matches = new LinkedHashMap<String, String>();
+        for (final var target : targetRecord.getRecordComponents()) {
+            final var source = findComponent(sourceRecord, target.getName());
+            if (source != null &&
+                createMappingExpression(source, target.getType()) != null
+            ) {
+                matches.put(target.getName(), source.getName());
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * The source components that could fill the given target component.
+     */
+    public static List<PsiRecordComponent> mapCandidates(
+        PsiClass sourceRecord,
+        PsiRecordComponent target
+    ) {
+        return stream(sourceRecord.getRecordComponents())
+            .filter(i -> createMappingExpression(i, target.getType()) != null)
+            .toList();
+    }
+
+    public static String mapMethodName(PsiClass targetRecord) {
+        return "to" + targetRecord.getName();
+    }
+
+    /**
+     * Adds (or replaces) the mapping method on the source record.
+     *
+     * @param choices target component name -> source component name, target
+     *                components not in here are left to the builder's
+     *                default, or the type's default with the constructor
+     * @return the conversions and placeholders, for warning the user
+     */
+    public static MapperResult generateMapper(
+        PsiClass sourceRecord,
+        PsiClass targetRecord,
+        Map<String, String> choices
+    ) {
+        final var mappings = mapComponents(sourceRecord, targetRecord, choices);
+
+        final var unmapped = new ArrayList<PsiRecordComponent>();
+        final var method = JavaPsiFacade.getElementFactory(sourceRecord.getProject())
+            .createMethodFromText(
+                createMapperMethod(sourceRecord, targetRecord, mappings, unmapped),
+                sourceRecord);
+
+        final var existingMethod = findMapperMethod(sourceRecord, targetRecord);
+        final var insertedMethod = existingMethod != null
+                                   ? existingMethod.replace(method)
+                                   : sourceRecord.addBefore(
+                                       method, sourceRecord.getLastChild());
+
+        final var project = sourceRecord.getProject();
+        JavaCodeStyleManager.getInstance(project)
+            .shortenClassReferences(insertedMethod);
+        CodeStyleManager.getInstance(project).reformat(insertedMethod);
+
+        return new MapperResult(
+            mappings.values().stream()
+                .filter(ComponentMapping::converted)
+                .toList(),
+            unmapped);
+    }
+
+    private static Map<String, ComponentMapping> mapComponents(
+        PsiClass sourceRecord,
+        PsiClass targetRecord,
+        Map<String, String> choices
+    ) {
+        final var mappings = new LinkedHashMap<String, ComponentMapping>();
+        for (final var target : targetRecord.getRecordComponents()) {
+            final var sourceName = choices.get(target.getName());
+            final var source = sourceName == null
+                               ? null
+                               : findComponent(sourceRecord, sourceName);
+            if (source == null) {
+                continue;
+            }
+
+            final var expression = createMappingExpression(source, target.getType());
+            if (expression == null) {
+                throw new IllegalArgumentException(
+                    "can't map " + sourceRecord.getName() + "." + sourceName +
+                        " to " + targetRecord.getName() + "." + target.getName());
+            }
+
+            final var copy = "source." + source.getName() + "()";
+            final var converted = !copy.equals(expression) ||
+                isUnboxing(source.getType(), target.getType());
+            mappings.put(target.getName(), new ComponentMapping(
+                target, source, expression, converted));
+        }
+        return mappings;
+    }
+
+    /**
+     * Fills the target through its Fruitfly builder when it has one with a
+     * setter for every mapped component, so unmapped components keep the
+     * builder's defaults, otherwise through the canonical constructor.
+     *
+     * @param unmapped receives the target components the constructor got a
+     *                 placeholder for
+     */
+    private static String createMapperMethod(
+        PsiClass sourceRecord,
+        PsiClass targetRecord,
+        Map<String, ComponentMapping> mappings,
+        List<PsiRecordComponent> unmapped
+    ) {
+        final var targetType = targetRecord.getQualifiedName();
+        final var text = new StringBuilder("public static ")
+            .append(targetType).append(" ")
+            .append(mapMethodName(targetRecord)).append("(")
+            .append(sourceRecord.getQualifiedName()).append(" source) {");
+
+        final var builderClass = findBuilderClass(targetRecord);
+        if (builderClass != null && hasSetters(builderClass, mappings.keySet())) {
+            text.append("return ")
+                .append(builderClass.getQualifiedName()).append(".")
+                .append(decapitalize(String.valueOf(targetRecord.getName())))
+                .append("()");
+            for (final var mapping : mappings.values()) {
+                text.append(".").append(mapping.target().getName())
+                    .append("(").append(mapping.expression()).append(")");
+            }
+            text.append(".build();");
+        }
+        else {
+            final var arguments = new StringJoiner(", ");
+            for (final var target : targetRecord.getRecordComponents()) {
+                final var mapping = mappings.get(target.getName());
+                if (mapping != null) {
+                    arguments.add(mapping.expression());
+                    continue;
+                }
+
+                unmapped.add(target);
+                // same as the builder field for an unset Optional
+                final var type = target.getType();
+                arguments.add(isOptionalType(type)
+                              ? "java.util.Optional.empty()"
+                              : PsiTypesUtil.getDefaultValueOfType(type));
+            }
+            text.append("return new ").append(targetType)
+                .append("(").append(arguments).append(");");
+        }
+
+        return text.append("}").toString();
+    }
+
+    /**
+     * `source.x()`, converted to `targetType` if needed, or null when there's
+     * no conversion Fruitfly is prepared to generate.
+     * <p>
+     * Conversions are deliberately limited to ones that can't throw: numeric
+     * casts (which may lose precision) and `String.valueOf()`.  Unboxing is
+     * the exception, it's plain assignment to Java but throws on null, so
+     * {@link #isUnboxing} marks it as converted.
+     */
+    public static String createMappingExpression(
+        PsiRecordComponent source,
+        PsiType targetType
+    ) {
+        final var sourceType = source.getType();
+        final var copy = "source." + source.getName() + "()";
+
+        if (targetType.isAssignableFrom(sourceType)) {
+            return copy;
+        }
+
+        final var sourcePrimitive = TypeConversionUtil.isPrimitiveAndNotNull(sourceType);
+        final var targetPrimitive = TypeConversionUtil.isPrimitiveAndNotNull(targetType);
+        if (sourcePrimitive && targetPrimitive &&
+            TypeConversionUtil.isNumericType(sourceType) &&
+            TypeConversionUtil.isNumericType(targetType)
+        ) {
+            return "(" + targetType.getCanonicalText() + ") " + copy;
+        }
+
+        if (isStringType(targetType)) {
+            return "String.valueOf(" + copy + ")";
+        }
+
+        return null;
+    }
+
+    /**
+     * `Integer` into `int` (or `long`, ...), which compiles as a copy but
+     * throws a NullPointerException when the source is null.
+     */
+    private static boolean isUnboxing(PsiType sourceType, PsiType targetType) {
+        return targetType instanceof PsiPrimitiveType &&
+            PsiPrimitiveType.getUnboxedType(sourceType) != null;
+    }
+
+    private static boolean hasSetters(
+        PsiClass builderClass,
+        Iterable<String> names
+    ) {
+        for (final var name : names) {
+            final var hasSetter = stream(builderClass.findMethodsByName(name, false))
+                .anyMatch(i -> i.getParameterList().getParametersCount() == 1);
+            if (!hasSetter) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static PsiMethod findMapperMethod(
+        PsiClass sourceRecord,
+        PsiClass targetRecord
+    ) {
+        for (final var method : sourceRecord.findMethodsByName(
+            mapMethodName(targetRecord), false)
+        ) {
+            final var parameters = method.getParameterList().getParameters();
+            if (parameters.length == 1 &&
+                method.hasModifierProperty(PsiModifier.STATIC) &&
+                parameters[0].getType().equalsToText(
+                    String.valueOf(sourceRecord.getQualifiedName()))
+            ) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static PsiRecordComponent findComponent(
+        PsiClass recordClass,
+        String name
+    ) {
+        return stream(recordClass.getRecordComponents())
+            .filter(i -> name.equals(i.getName()))
+            .findFirst()
+            .orElse(null);
+    }
+
+}
@@ -0,0 +1,94 @@
+package fruitfly.ide;
+
+import fruitfly.test.FruitflyTestCase;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BuilderInLoopInspectionTest extends FruitflyTestCase {
+
+    private static final String POINT = """
+        public record Point(int x, int y) {
+            public static final class Builder {
+                private int x;
+                private int y;
+
+                public static Builder point() {
+                    return new Builder();
+                }
+
+                public Builder x(int x) {
+                    this.x = x;
+                    return this;
+                }
+
+                public Builder y(int y) {
+                    this.y = y;
+                    return this;
+                }
+
+                public Point build() {
+                    return new Point(this.x, this.y);
+                }
+            }
+        }
+        """;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myFixture.addClass(POINT);
+        myFixture.enableInspections(new BuilderInLoopInspection());
+    }
+
+    public void testFixInLoop() {
+        myFixture.configureByText("Usage.java", """
+            class Usage {
+                void use(int[] xs) {
+                    for (int x : xs) {
+                        Point p = Point.Builder.point().y(x * 2).x(x).build();
+                    }
+                }
+            }
+            """);
+
+        var fix = myFixture.getAllQuickFixes().stream()
+            .filter(i -> i.getFamilyName().equals("Replace builder with canonical constructor"))
+            .findFirst();
+        assertThat(fix).isPresent();
+
+        myFixture.launchAction(fix.get());
+        assertThat(myFixture.getFile().getText())
+            .contains("Point p = new Point(x, x * 2);");
+    }
+
+    public void testIgnoredOutsideLoop() {
+        myFixture.configureByText("Usage.java", """
+            class Usage {
+                Point use(int x) {
+                    return Point.Builder.point().x(x).y(x).build();
+                }
+            }
+            """);
+
+        assertThat(myFixture.doHighlighting())
+            .noneMatch(i -> i.getDescription() != null &&
+                i.getDescription().contains("canonical constructor"));
+    }
+
+    public void testIgnoredWhenComponentMissing() {
+        myFixture.configureByText("Usage.java", """
+            class Usage {
+                void use(int[] xs) {
+                    for (int x : xs) {
+                        Point p = Point.Builder.point().x(x).build();
+                    }
+                }
+            }
+            """);
+
+        assertThat(myFixture.doHighlighting())
+            .noneMatch(i -> i.getDescription() != null &&
+                i.getDescription().contains("canonical constructor"));
+    }
+
+}
@@ -0,0 +1,93 @@
+package fruitfly.ide;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiJavaFile;
+import fruitfly.psi.BuilderGenerator;
+import fruitfly.psi.BuilderOptions;
+import fruitfly.test.FruitflyTestCase;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BuilderIntentionTest extends FruitflyTestCase {
+
+    private static final String INPUT = """
+        public record <caret>Point(int x, int y) { }
+        """;
+
+    public void testPreviewDoesNotModifyFile() {
+        myFixture.configureByText("Point.java", INPUT);
+        var action = myFixture.findSingleIntention("Generate Fruitfly builder");
+
+        var preview = myFixture.getIntentionPreviewText(action);
+
+        assertThat(preview).contains("public static final class Builder");
+        assertThat(preview).contains("public Point build()");
+        assertThat(myFixture.getFile().getText()).doesNotContain("Builder");
+    }
+
+    public void testApplyMatchesPreview() {
+        myFixture.configureByText("Point.java", INPUT);
+        var action = myFixture.findSingleIntention("Generate Fruitfly builder");
+
+        var preview = myFixture.getIntentionPreviewText(action);
+        myFixture.launchAction(action);
+
+        assertThat(myFixture.getFile().getText()).isEqualTo(preview);
+    }
+
+    public void testEditAfterPreviewIsNotLost() {
+        myFixture.configureByText("Point.java", INPUT);
+        var action = myFixture.findSingleIntention("Generate Fruitfly builder");
+        myFixture.getIntentionPreviewText(action);
+
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            var document = myFixture.getEditor().getDocument();
+            var offset = document.getText().indexOf("int y") + "int y".length();
+            document.insertString(offset, ", int z");
+            PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+        });
+        myFixture.launchAction(action);
+
+        assertThat(myFixture.getFile().getText()).contains("public Builder z(int z)");
+    }
+
+    public void testSiblingPreviewIsFormatted() {
+        myFixture.configureByText("Point.java", """
+            package com.example;
+
+            public record <caret>Point(int x, int y) { }
+            """);
+        var recordClass = ((PsiJavaFile) myFixture.getFile()).getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                ClassMemberChooser.mapRecordComponentNames(recordClass),
+                BuilderOptions.builderOptions().siblingFile(true).build());
+        });
+        var action = myFixture.findSingleIntention("Regenerate Fruitfly builder");
+
+        var preview = myFixture.getIntentionPreviewText(action);
+
+        // what writing the sibling file produces, not the raw generated text
+        assertThat(preview)
+            .startsWith("package com.example;")
+            .contains("public class PointBuilder {")
+            .contains("    public Point build() {")
+            .doesNotContain("com.example.Point");
+    }
+
+    public void testNotAvailableInsideMethodBody() {
+        myFixture.configureByText("Point.java", """
+            public record Point(int x, int y) {
+                public int sum() {
+                    return <caret>x + y;
+                }
+            }
+            """);
+
+        assertThat(myFixture.filterAvailableIntentions("Generate Fruitfly builder"))
+            .isEmpty();
+    }
+
+}
@@ -0,0 +1,91 @@
+package fruitfly.ide;
+
+import com.intellij.openapi.application.impl.NonBlockingReadActionImpl;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.command.undo.UndoManager;
+import com.intellij.openapi.fileEditor.impl.text.TextEditorProvider;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.testFramework.PlatformTestUtil;
+import fruitfly.psi.BuilderGenerator;
+import fruitfly.test.FruitflyTestCase;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BuilderSyncServiceTest extends FruitflyTestCase {
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            BuilderSyncService.setEnabled(getProject(), false);
+            // the light project, and so the service, outlives the test
+            var service = BuilderSyncService.getInstance(getProject());
+            service.resumeQueue();
+            service.getDirtyFiles().clear();
+        }
+        finally {
+            super.tearDown();
+        }
+    }
+
+    public void testAddedComponentIsSynced() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x, int y) { }
+            """);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(file.getClasses()[0]);
+        });
+        BuilderSyncService.setEnabled(getProject(), true);
+        BuilderSyncService.getInstance(getProject());
+
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            var recordClass = file.getClasses()[0];
+            recordClass.getRecordHeader().replace(
+                JavaPsiFacade.getElementFactory(getProject())
+                    .createRecordHeaderFromText("int x, int y, int z", recordClass));
+        });
+        PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+
+        // the queue passes updates straight through in tests, what's left is
+        // the background read action and its write command on the EDT
+        NonBlockingReadActionImpl.waitForAsyncTaskCompletion();
+        PlatformTestUtil.dispatchAllEventsInIdeEventQueue();
+
+        var recordClass = file.getClasses()[0];
+        var builderClass = BuilderGenerator.findBuilderClass(recordClass);
+        assertThat(builderClass).isNotNull();
+        assertThat(builderClass.findMethodsByName("z", false)).hasSize(1);
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isFalse();
+    }
+
+    public void testUndoIsNotResynced() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x, int y) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        var virtualFile = file.getVirtualFile();
+
+        BuilderSyncService.setEnabled(getProject(), true);
+        var service = BuilderSyncService.getInstance(getProject());
+        service.suspendQueue();
+
+        // stands in for the sync's own write command
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(recordClass);
+        });
+        PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+        assertThat(service.getDirtyFiles()).contains(virtualFile);
+        service.getDirtyFiles().clear();
+
+        var undoManager = UndoManager.getInstance(getProject());
+        var textEditor = TextEditorProvider.getInstance().getTextEditor(myFixture.getEditor());
+        assertThat(undoManager.isUndoAvailable(textEditor)).isTrue();
+        undoManager.undo(textEditor);
+        PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+
+        assertThat(file.getText()).doesNotContain("Builder");
+        assertThat(service.getDirtyFiles()).doesNotContain(virtualFile);
+    }
+
+}
@@ -0,0 +1,132 @@
+package fruitfly.psi;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiJavaFile;
+import fruitfly.test.FruitflyTestCase;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
+import static fruitfly.psi.BuilderOptions.builderOptions;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchRecordTest extends FruitflyTestCase {
+
+    private static final Logger log = Logger.getInstance(BatchRecordTest.class);
+
+    public void testBatch() {
+        var file = (PsiJavaFile) myFixture.configureByText("Row.java", """
+            import java.util.Optional;
+
+            public record Row(int id, String name, Optional<String> note, long[] samples) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions().batch(true).build());
+        });
+
+        log.info("generated: " + file.getText());
+        var builderClass = recordClass.findInnerClassByName("Builder", false);
+        assertThat(builderClass).isNotNull();
+        var batchClass = builderClass.findInnerClassByName("Batch", false);
+        assertThat(batchClass).isNotNull();
+
+        // one column per component: primitive, typed, erased and nested arrays
+        assertThat(batchClass.findFieldByName("idColumn", false).getType().getCanonicalText())
+            .isEqualTo("int[]");
+        assertThat(batchClass.findFieldByName("nameColumn", false).getType().getCanonicalText())
+            .isEqualTo("java.lang.String[]");
+        assertThat(batchClass.findFieldByName("noteColumn", false).getType().getCanonicalText())
+            .isEqualTo("java.lang.Object[]");
+        assertThat(batchClass.findFieldByName("samplesColumn", false).getType().getCanonicalText())
+            .isEqualTo("long[][]");
+        assertThat(file.getText()).contains("new long[initialCapacity][]");
+
+        for (var name : new String[]{"add", "get", "toList", "iterator", "spliterator", "stream", "parallelStream"}) {
+            assertThat(batchClass.findMethodsByName(name, false)).as(name).hasSize(1);
+        }
+        assertThat(batchClass.findMethodsByName("add", false)[0].getParameterList().getParametersCount())
+            .isEqualTo(4);
+    }
+
+    /**
+     * Compiles the generated batch and reads it back every way it offers,
+     * growing it from a capacity of one and reusing it after `clear()`.
+     */
+    public void testBatchAtRuntime() throws Exception {
+        var file = (PsiJavaFile) myFixture.configureByText("Row.java", """
+            import java.util.Optional;
+
+            public record Row(int id, String name, Optional<String> note, long[] samples) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions().batch(true).build());
+        });
+
+        var check = """
+            public class BatchCheck implements java.util.function.Supplier<String> {
+                @Override
+                public String get() {
+                    var batch = new Row.Builder.Batch(1);
+                    for (int i = 0; i < 100; i++) {
+                        batch.add(i, "r" + i, java.util.Optional.of("n" + i), new long[]{i});
+                    }
+
+                    var list = batch.toList();
+                    var iterated = 0;
+                    for (Row row : batch) {
+                        iterated += row.id() == iterated ? 1 : 0;
+                    }
+                    var spliterator = batch.spliterator();
+                    var prefix = spliterator.trySplit();
+                    var sum = batch.parallelStream().mapToLong(Row::id).sum();
+                    var row = batch.get(99);
+
+                    batch.clear();
+                    String cleared;
+                    try {
+                        batch.get(0);
+                        cleared = "still there";
+                    }
+                    catch (IndexOutOfBoundsException e) {
+                        cleared = "empty";
+                    }
+                    batch.add(7, "again", java.util.Optional.empty(), new long[0]);
+
+                    return String.join(",",
+                        String.valueOf(list.size()),
+                        row.name(),
+                        row.note().orElse("none"),
+                        String.valueOf(row.samples()[0]),
+                        String.valueOf(iterated),
+                        String.valueOf(prefix.estimateSize()),
+                        String.valueOf(spliterator.estimateSize()),
+                        String.valueOf(sum),
+                        cleared,
+                        String.valueOf(batch.size()),
+                        batch.get(0).name());
+                }
+            }
+            """;
+
+        var loader = compile(Map.of(
+            "Row.java", file.getText(),
+            "BatchCheck.java", check));
+        @SuppressWarnings("unchecked")
+        var supplier = (Supplier<String>) loader.loadClass("BatchCheck")
+            .getDeclaredConstructor().newInstance();
+
+        assertThat(supplier.get())
+            .isEqualTo("100,r99,n99,99,100,50,50,4950,empty,1,again");
+    }
+
+}
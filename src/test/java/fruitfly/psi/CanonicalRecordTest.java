@@ -0,0 +1,121 @@
+package fruitfly.psi;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiJavaFile;
+import fruitfly.test.FruitflyTestCase;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
+import static fruitfly.psi.BuilderOptions.builderOptions;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CanonicalRecordTest extends FruitflyTestCase {
+
+    private static final Logger log = Logger.getInstance(CanonicalRecordTest.class);
+
+    public void testCanonical() {
+        var inputJava = getTestPsiJavaFile("fruitfly/psi/canonical_record/CanonicalRecordTestInput.java");
+
+        var recordClass = inputJava.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(inputJava.getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions().canonical(true).build());
+        });
+
+        log.info("generated: " + inputJava.getText());
+        var builderClass = recordClass.findInnerClassByName("Builder", false);
+        assertThat(builderClass).isNotNull();
+        assertThat(builderClass.findMethodsByName("buildCanonical", false)).hasSize(1);
+        assertThat(builderClass.findMethodsByName("canonicalCache", false)).hasSize(2);
+        assertThat(builderClass.findMethodsByName("canonicalHitCount", false)).hasSize(1);
+        assertThat(builderClass.findMethodsByName("canonicalMissCount", false)).hasSize(1);
+        assertThat(builderClass.findMethodsByName("canonicalEvictionCount", false)).hasSize(1);
+
+        // the default cache is created on first use, not with the builder class
+        var cacheField = builderClass.findFieldByName("canonicalCache", false);
+        assertThat(cacheField).isNotNull();
+        assertThat(cacheField.getInitializer()).isNull();
+        assertThat(builderClass.findInnerClassByName("DefaultCanonicalCache", false))
+            .isNotNull();
+
+        var canonicalizer = builderClass.findInnerClassByName("Canonicalizer", false);
+        assertThat(canonicalizer).isNotNull();
+        assertThat(canonicalizer.findMethodsByName("hitCount", false)).hasSize(1);
+        assertThat(canonicalizer.findMethodsByName("missCount", false)).hasSize(1);
+        assertThat(canonicalizer.findMethodsByName("evictionCount", false)).hasSize(1);
+    }
+
+    /**
+     * Compiles the generated cache and checks what it counts, that it stays
+     * within its bound, and that the stats give up on a plugged-in cache.
+     */
+    public void testCanonicalizerAtRuntime() throws Exception {
+        var file = (PsiJavaFile) myFixture.configureByText("Country.java", """
+            public record Country(String code, int population) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions().canonical(true).build());
+        });
+
+        var check = """
+            public class CanonicalCheck implements java.util.function.Supplier<String> {
+                @Override
+                public String get() {
+                    var first = Country.Builder.country().code("NZ").population(5).buildCanonical();
+                    var second = Country.Builder.country().code("NZ").population(5).buildCanonical();
+
+                    var bounded = new Country.Builder.Canonicalizer(4);
+                    for (int i = 0; i < 100; i++) {
+                        bounded.apply(new Country("C" + i, i));
+                    }
+                    // the most recent entry of its stripe
+                    var last = bounded.apply(new Country("C99", 99));
+
+                    var result = String.join(",",
+                        String.valueOf(first == second),
+                        String.valueOf(Country.Builder.canonicalHitCount()),
+                        String.valueOf(Country.Builder.canonicalMissCount()),
+                        String.valueOf(Country.Builder.canonicalEvictionCount()),
+                        String.valueOf(bounded.size() <= 4),
+                        String.valueOf(bounded.evictionCount() == 100 - bounded.size()),
+                        String.valueOf(bounded.missCount()),
+                        String.valueOf(bounded.hitCount()),
+                        last.code());
+
+                    Country.Builder.canonicalCache(java.util.function.UnaryOperator.identity());
+                    return result + "," + Country.Builder.canonicalHitCount();
+                }
+            }
+            """;
+
+        var loader = compile(Map.of(
+            "Country.java", file.getText(),
+            "CanonicalCheck.java", check));
+        @SuppressWarnings("unchecked")
+        var supplier = (Supplier<String>) loader.loadClass("CanonicalCheck")
+            .getDeclaredConstructor().newInstance();
+
+        assertThat(supplier.get()).isEqualTo("true,1,1,0,true,true,100,1,C99,-1");
+    }
+
+    public void testDefaultOptionsOmitCanonical() {
+        var inputJava = getTestPsiJavaFile("fruitfly/psi/canonical_record/CanonicalRecordTestInput.java");
+
+        var recordClass = inputJava.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(inputJava.getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(recordClass);
+        });
+
+        assertThat(inputJava.getText()).doesNotContain("buildCanonical");
+    }
+
+}
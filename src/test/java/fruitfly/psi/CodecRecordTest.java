@@ -0,0 +1,206 @@
+package fruitfly.psi;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiJavaFile;
+import fruitfly.test.FruitflyTestCase;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
+import static fruitfly.psi.BuilderOptions.builderOptions;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CodecRecordTest extends FruitflyTestCase {
+
+    private static final Logger log = Logger.getInstance(CodecRecordTest.class);
+
+    public void testCodec() {
+        myFixture.addClass("public enum Status { ACTIVE, RETIRED }");
+        var address = generateCodec("Address.java", """
+            public record Address(String city, int zip) { }
+            """);
+        assertThat(BuilderGenerator.findBuilderClass(address)
+            .findInnerClassByName("View", false)).isNotNull();
+
+        var person = generateCodec("Person.java", """
+            public record Person(
+                String name, int age, boolean active, double score,
+                Status status, Address address
+            ) { }
+            """);
+        log.info("generated: " + person.getContainingFile().getText());
+
+        assertThat(person.findMethodsByName("writeTo", false)).hasSize(1);
+
+        var builderClass = BuilderGenerator.findBuilderClass(person);
+        assertThat(builderClass.findMethodsByName("writeTo", false)).hasSize(1);
+        assertThat(builderClass.findMethodsByName("readFrom", false)).hasSize(1);
+        // length + name(8) + age(4) + active(1) + score(8) + status(4) + address(8)
+        assertThat(builderClass.findFieldByName("ENCODED_HEADER_SIZE", false)
+            .computeConstantValue()).isEqualTo(37);
+
+        var view = builderClass.findInnerClassByName("View", false);
+        assertThat(view).isNotNull();
+        for (var name : mapRecordComponentNames(person)) {
+            assertThat(view.findMethodsByName(name, false)).as(name).hasSize(1);
+        }
+        assertThat(view.findMethodsByName("address", false)[0].getReturnType()
+            .getCanonicalText()).isEqualTo("Address.Builder.View");
+    }
+
+    public void testGolden() {
+        var inputJava = getTestPsiJavaFile("fruitfly/psi/codec_record/CodecRecordTestInput.java");
+        var outputText = getTestPsiTextFile("fruitfly/psi/codec_record/CodecRecordTestOutput.txt");
+
+        var recordClass = inputJava.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(inputJava.getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions().codec(true).build());
+        });
+
+        log.info("generated: " + inputJava.getText());
+        assertThat(inputJava.getText()).isEqualTo(outputText.getText());
+    }
+
+    /**
+     * Compiles the generated codec with the JDK running the tests and pushes
+     * records through it, nulls and nested records included, at a non-zero
+     * buffer position and back to back.
+     */
+    public void testRoundTrip() throws Exception {
+        var status = myFixture.addClass("public enum Status { ACTIVE, RETIRED }");
+        var address = generateCodec("Address.java", """
+            public record Address(String city, int zip) { }
+            """);
+        var person = generateCodec("Person.java", """
+            public record Person(
+                String name, int age, boolean active, double score,
+                Status status, Address address
+            ) { }
+            """);
+
+        var roundTrip = """
+            public class RoundTrip implements java.util.function.Supplier<String> {
+                @Override
+                public String get() {
+                    var buffer = java.nio.ByteBuffer.allocate(1024);
+                    buffer.position(3);
+
+                    var full = new Person("Zo\u00eb", 36, true, 1.5, Status.RETIRED,
+                        new Address("London", 12345));
+                    var empty = new Person(null, 0, false, 0.0, null, null);
+                    var partial = new Person("", -1, false, -0.5, Status.ACTIVE,
+                        new Address(null, 7));
+                    full.writeTo(buffer);
+                    var fullEnd = buffer.position();
+                    empty.writeTo(buffer);
+                    partial.writeTo(buffer);
+                    var end = buffer.position();
+
+                    var fullView = new Person.Builder.View(buffer, 3);
+                    var emptyView = new Person.Builder.View(buffer, fullEnd);
+
+                    buffer.position(3);
+                    return String.join(",",
+                        String.valueOf(full.equals(Person.Builder.readFrom(buffer))),
+                        String.valueOf(empty.equals(Person.Builder.readFrom(buffer))),
+                        String.valueOf(partial.equals(Person.Builder.readFrom(buffer))),
+                        String.valueOf(buffer.position() == end),
+                        String.valueOf(fullView.encodedLength() == fullEnd - 3),
+                        fullView.name(),
+                        String.valueOf(fullView.status()),
+                        fullView.address().city(),
+                        String.valueOf(fullView.address().zip()),
+                        String.valueOf(emptyView.name()),
+                        String.valueOf(emptyView.status()),
+                        String.valueOf(emptyView.address()));
+                }
+            }
+            """;
+
+        var loader = compile(Map.of(
+            "Status.java", status.getContainingFile().getText(),
+            "Address.java", address.getContainingFile().getText(),
+            "Person.java", person.getContainingFile().getText(),
+            "RoundTrip.java", roundTrip));
+        @SuppressWarnings("unchecked")
+        var supplier = (Supplier<String>) loader.loadClass("RoundTrip")
+            .getDeclaredConstructor().newInstance();
+
+        assertThat(supplier.get()).isEqualTo(
+            "true,true,true,true,true,Zo\u00eb,RETIRED,London,12345,null,null,null");
+    }
+
+    public void testRegenerateKeepsSingleWriteTo() {
+        var point = generateCodec("Point.java", """
+            public record Point(int x, int y) { }
+            """);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                point,
+                mapRecordComponentNames(point),
+                BuilderGenerator.detectOptions(BuilderGenerator.findBuilderClass(point)));
+        });
+
+        assertThat(point.findMethodsByName("writeTo", false)).hasSize(1);
+    }
+
+    public void testHandWrittenWriteToIsKept() {
+        myFixture.addClass("""
+            public class Codec {
+                public static void writeTo(Object value, java.io.OutputStream out) { }
+            }
+            """);
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x, int y) {
+                public void writeTo(java.io.OutputStream out) {
+                    Codec.writeTo(this, out);
+                }
+            }
+            """);
+        var point = file.getClasses()[0];
+
+        // default options, no codec
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(point);
+        });
+        assertThat(point.findMethodsByName("writeTo", false)).hasSize(1);
+
+        // with the codec, the generated delegate sits next to it
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                point,
+                mapRecordComponentNames(point),
+                builderOptions().codec(true).build());
+        });
+        assertThat(point.findMethodsByName("writeTo", false)).hasSize(2);
+    }
+
+    public void testUnsupportedComponentSkipsCodec() {
+        var tags = generateCodec("Tags.java", """
+            public record Tags(String name, String[] tags) { }
+            """);
+
+        assertThat(tags.findMethodsByName("writeTo", false)).isEmpty();
+        assertThat(BuilderGenerator.findBuilderClass(tags)
+            .findInnerClassByName("View", false)).isNull();
+    }
+
+    private PsiClass generateCodec(String fileName, String text) {
+        var file = (PsiJavaFile) myFixture.configureByText(fileName, text);
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions().codec(true).build());
+        });
+        return recordClass;
+    }
+
+}
@@ -0,0 +1,90 @@
+package fruitfly.psi;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiJavaFile;
+import fruitfly.test.FruitflyTestCase;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DefaultValueRecordTest extends FruitflyTestCase {
+
+    private static final Logger log = Logger.getInstance(DefaultValueRecordTest.class);
+
+    public void testLazyDefaults() {
+        myFixture.addClass("""
+            package config;
+            public @interface Default { String value(); }
+            """);
+        var file = (PsiJavaFile) myFixture.configureByText("Event.java", """
+            import config.Default;
+
+            public record Event(
+                String name,
+                @Default("System.nanoTime()") long createdAt,
+                @Default("\\"unknown\\"") String source
+            ) { }
+            """);
+
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(recordClass);
+        });
+
+        log.info("generated: " + file.getText());
+        var builderClass = BuilderGenerator.findBuilderClass(recordClass);
+        assertThat(builderClass).isNotNull();
+
+        // one supplier per default, one tracking word for both
+        assertThat(builderClass.findFieldByName("createdAtDefault", false).getType().getCanonicalText())
+            .isEqualTo("java.util.function.LongSupplier");
+        assertThat(builderClass.findFieldByName("sourceDefault", false).getType().getCanonicalText())
+            .isEqualTo("java.util.function.Supplier<java.lang.String>");
+        assertThat(builderClass.findFieldByName("nameDefault", false)).isNull();
+        assertThat(builderClass.findFieldByName("defaultsSet0", false)).isNotNull();
+        assertThat(builderClass.findFieldByName("defaultsSet1", false)).isNull();
+
+        // setting a defaulted component marks it, others are untouched
+        assertThat(builderClass.findMethodsByName("createdAt", false)[0].getText())
+            .contains("this.defaultsSet0 |= 1L << 0;");
+        assertThat(builderClass.findMethodsByName("source", false)[0].getText())
+            .contains("this.defaultsSet0 |= 1L << 1;");
+        assertThat(builderClass.findMethodsByName("name", false)[0].getText())
+            .doesNotContain("defaultsSet");
+
+        // suppliers are only evaluated in build(), for unset components
+        var build = builderClass.findMethodsByName("build", false)[0].getText();
+        assertThat(build).contains("if ((this.defaultsSet0 & 1L << 0) == 0)");
+        assertThat(build).contains("this.createdAt = createdAtDefault.getAsLong();");
+        assertThat(build).contains("this.source = sourceDefault.get();");
+
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isFalse();
+    }
+
+    public void testNonExpressionDefaultIsSkipped() {
+        myFixture.addClass("""
+            package config;
+            public @interface Default { String value(); }
+            """);
+        var file = (PsiJavaFile) myFixture.configureByText("Label.java", """
+            import config.Default;
+
+            public record Label(
+                @Default("not an expression") String text,
+                @Default("1") int size
+            ) { }
+            """);
+
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(recordClass);
+        });
+
+        var builderClass = BuilderGenerator.findBuilderClass(recordClass);
+        assertThat(builderClass).isNotNull();
+        assertThat(builderClass.findFieldByName("textDefault", false)).isNull();
+        assertThat(builderClass.findFieldByName("sizeDefault", false)).isNotNull();
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isFalse();
+    }
+
+}
@@ -0,0 +1,113 @@
+package fruitfly.psi;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiJavaFile;
+import fruitfly.test.FruitflyTestCase;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
+import static fruitfly.psi.BuilderOptions.builderOptions;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JfrRecordTest extends FruitflyTestCase {
+
+    private static final Logger log = Logger.getInstance(JfrRecordTest.class);
+
+    public void testBuildEvent() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            package geo;
+
+            public record Point(int x, int y, String label) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions().jfr(true).build());
+        });
+
+        log.info("generated: " + file.getText());
+        var builderClass = BuilderGenerator.findBuilderClass(recordClass);
+        assertThat(builderClass).isNotNull();
+
+        var event = builderClass.findInnerClassByName("BuildEvent", false);
+        assertThat(event).isNotNull();
+        assertThat(event.getExtendsList().getText()).contains("Event");
+        assertThat(event.getModifierList().getText()).contains("\"geo.Point.Build\"");
+        // counts values, not setter calls, and is named for it
+        assertThat(event.findFieldByName("nonDefaultComponents", false)).isNotNull();
+        assertThat(builderClass.findMethodsByName("commitBuildEvent", false)[0].getText())
+            .contains("this.label != null")
+            .contains("event.nonDefaultComponents++;")
+            .contains("this.buildEvent = beginBuildEvent();");
+
+        // the only cost when JFR is off: the probe check and a null check
+        var build = builderClass.findMethodsByName("build", false)[0];
+        assertThat(build.getBody().getText()).contains("if (this.buildEvent != null)");
+        assertThat(builderClass.findMethodsByName("beginBuildEvent", false)[0].getText())
+            .contains("BUILD_EVENT_PROBE.isEnabled()");
+
+        // still recognised, and still in sync, with the extra members
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isFalse();
+        assertThat(BuilderGenerator.detectOptions(builderClass).jfr()).isTrue();
+    }
+
+    /**
+     * Records the events for real: a reused builder reports every build(),
+     * each with the components it was built with.
+     */
+    public void testReusedBuilderReportsEveryBuild() throws Exception {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x, int y, String label) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions().jfr(true).build());
+        });
+
+        var check = """
+            public class JfrCheck implements java.util.function.Supplier<String> {
+                @Override
+                public String get() {
+                    try (var recording = new jdk.jfr.Recording()) {
+                        recording.enable("Point.Build").withoutThreshold();
+                        recording.start();
+                        var builder = Point.Builder.point().x(1);
+                        builder.build();
+                        builder.y(2).build();
+                        recording.stop();
+
+                        var dump = java.nio.file.Files.createTempFile("fruitfly", ".jfr");
+                        recording.dump(dump);
+                        var events = jdk.jfr.consumer.RecordingFile.readAllEvents(dump).stream()
+                            .map(i -> i.getString("recordType") + ":" + i.getInt("nonDefaultComponents"))
+                            .sorted()
+                            .toList();
+                        java.nio.file.Files.delete(dump);
+                        return events.toString();
+                    }
+                    catch (java.io.IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                }
+            }
+            """;
+
+        var loader = compile(Map.of(
+            "Point.java", file.getText(),
+            "JfrCheck.java", check));
+        @SuppressWarnings("unchecked")
+        var supplier = (Supplier<String>) loader.loadClass("JfrCheck")
+            .getDeclaredConstructor().newInstance();
+
+        assertThat(supplier.get()).isEqualTo("[Point:1, Point:2]");
+    }
+
+}
@@ -0,0 +1,166 @@
+package fruitfly.psi;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiJavaFile;
+import fruitfly.test.FruitflyTestCase;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MapperRecordTest extends FruitflyTestCase {
+
+    private static final Logger log = Logger.getInstance(MapperRecordTest.class);
+
+    public void testMatchesByNameAndType() {
+        var source = addRecord("""
+            public record OrderDto(String id, int quantity, long price, String note) { }
+            """);
+        var target = addRecord("""
+            public record Order(String id, long quantity, int price, String customer) { }
+            """);
+
+        var matches = MapperGenerator.matchComponents(source, target);
+
+        // int -> long widens, long -> int needs a cast, customer has no match
+        assertThat(matches).containsExactly(
+            Map.entry("id", "id"),
+            Map.entry("quantity", "quantity"),
+            Map.entry("price", "price"));
+        assertThat(MapperGenerator.mapCandidates(source, target.getRecordComponents()[3]))
+            .extracting(i -> i.getName())
+            .containsExactly("id", "quantity", "price", "note");
+    }
+
+    public void testConstructorMapping() {
+        var source = addRecord("""
+            public record OrderDto(String id, int quantity, long price, String note) { }
+            """);
+        var target = addRecord("""
+            public record Order(String id, long quantity, int price, String customer, boolean paid) { }
+            """);
+
+        var choices = MapperGenerator.matchComponents(source, target);
+        choices.put("customer", "note");
+        var result = generate(source, target, choices);
+
+        log.info("generated: " + source.getContainingFile().getText());
+        var method = source.findMethodsByName("toOrder", false);
+        assertThat(method).hasSize(1);
+        assertThat(method[0].getText())
+            .contains("public static Order toOrder(OrderDto source)")
+            .contains("return new Order(source.id(), source.quantity(), " +
+                "(int) source.price(), source.note(), false);")
+            .doesNotContain("reflect");
+
+        assertThat(result.converted())
+            .extracting(i -> i.target().getName())
+            .containsExactly("price");
+        assertThat(result.unmapped())
+            .extracting(i -> i.getName())
+            .containsExactly("paid");
+    }
+
+    public void testUnboxingIsAConversion() {
+        var source = addRecord("""
+            public record LineDto(Integer count, Integer total) { }
+            """);
+        var target = addRecord("""
+            public record Line(int count, Integer total) { }
+            """);
+
+        var result = generate(
+            source, target, MapperGenerator.matchComponents(source, target));
+
+        // a null count throws in toLine(), a null total is copied
+        assertThat(source.findMethodsByName("toLine", false)[0].getText())
+            .contains("return new Line(source.count(), source.total());");
+        assertThat(result.converted())
+            .extracting(i -> i.target().getName())
+            .containsExactly("count");
+    }
+
+    public void testUnmappedOptionalIsEmpty() {
+        var source = addRecord("""
+            public record UserDto(String name) { }
+            """);
+        var target = addRecord("""
+            import java.util.Optional;
+
+            public record User(String name, Optional<String> email, String phone) { }
+            """);
+
+        var result = generate(
+            source, target, MapperGenerator.matchComponents(source, target));
+
+        assertThat(source.findMethodsByName("toUser", false)[0].getText())
+            .contains("return new User(source.name(), Optional.empty(), null);");
+        assertThat(result.unmapped())
+            .extracting(i -> i.getName())
+            .containsExactly("email", "phone");
+    }
+
+    public void testBuilderMapping() {
+        var source = addRecord("""
+            public record PointDto(int x, int y) { }
+            """);
+        var target = addRecord("""
+            public record Point(int x, int y, String label) { }
+            """);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(target);
+        });
+
+        var result = generate(
+            source, target, MapperGenerator.matchComponents(source, target));
+
+        // label is left to the builder
+        assertThat(source.findMethodsByName("toPoint", false)[0].getText())
+            .contains("return Point.Builder.point().x(source.x()).y(source.y()).build();");
+        assertThat(result.converted()).isEmpty();
+        assertThat(result.unmapped()).isEmpty();
+    }
+
+    public void testStringConversionAndRegeneration() {
+        var source = addRecord("""
+            public record EventDto(long id) { }
+            """);
+        var target = addRecord("""
+            public record Event(String id) { }
+            """);
+
+        generate(source, target, MapperGenerator.matchComponents(source, target));
+        var result = generate(
+            source, target, MapperGenerator.matchComponents(source, target));
+
+        // replaced, not added twice
+        var methods = source.findMethodsByName("toEvent", false);
+        assertThat(methods).hasSize(1);
+        assertThat(methods[0].getText())
+            .contains("return new Event(String.valueOf(source.id()));");
+        assertThat(result.converted()).hasSize(1);
+    }
+
+    private PsiClass addRecord(String text) {
+        var name = text.substring(
+            text.indexOf("record ") + "record ".length(), text.indexOf('('));
+        var file = (PsiJavaFile) myFixture.addFileToProject(name + ".java", text);
+        return file.getClasses()[0];
+    }
+
+    private MapperGenerator.MapperResult generate(
+        PsiClass source,
+        PsiClass target,
+        Map<String, String> choices
+    ) {
+        var result = new AtomicReference<MapperGenerator.MapperResult>();
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            result.set(MapperGenerator.generateMapper(source, target, choices));
+        });
+        return result.get();
+    }
+
+}
@@ -0,0 +1,195 @@
+package fruitfly.psi;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiJavaFile;
+import fruitfly.test.FruitflyTestCase;
+
+import static fruitfly.ide.ClassMemberChooser.GENERATED_SOURCES_ROOT_KEY;
+import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
+import static fruitfly.psi.BuilderOptions.builderOptions;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the layout where the builder goes into its own `FooBuilder.java`.
+ */
+public class SiblingBuilderTest extends FruitflyTestCase {
+
+    private static final BuilderOptions SIBLING =
+        builderOptions().siblingFile(true).build();
+
+    public void testBuilderIsWrittenNextToRecord() {
+        var file = (PsiJavaFile) myFixture.addFileToProject("com/example/Point.java", """
+            package com.example;
+
+            public record Point(int x, int y) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        var recordText = file.getText();
+
+        generate(recordClass, SIBLING);
+
+        assertThat(file.getText()).isEqualTo(recordText);
+
+        var siblingFile = (PsiJavaFile) file.getContainingDirectory()
+            .findFile("PointBuilder.java");
+        assertThat(siblingFile).isNotNull();
+        assertThat(siblingFile.getPackageName()).isEqualTo("com.example");
+
+        var builderClass = siblingFile.getClasses()[0];
+        assertThat(builderClass.getName()).isEqualTo("PointBuilder");
+        assertThat(builderClass.getModifierList().hasExplicitModifier("static")).isFalse();
+        assertThat(siblingFile.getText())
+            .contains("public static PointBuilder point()")
+            .contains("public PointBuilder x(int x)")
+            .contains("return new Point(this.x, this.y);");
+
+        assertThat(BuilderGenerator.findBuilderClass(recordClass)).isEqualTo(builderClass);
+        assertThat(BuilderGenerator.findBuiltRecord(builderClass)).isEqualTo(recordClass);
+        assertThat(BuilderGenerator.detectOptions(builderClass).siblingFile()).isTrue();
+    }
+
+    public void testRegenerationReplacesSiblingInPlace() {
+        var file = (PsiJavaFile) myFixture.addFileToProject("com/example/Point.java", """
+            package com.example;
+
+            public record Point(int x) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        generate(recordClass, SIBLING);
+
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            recordClass.getRecordHeader().replace(
+                JavaPsiFacade.getElementFactory(getProject())
+                    .createRecordHeaderFromText("int x, int y", recordClass));
+        });
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isTrue();
+
+        var regenerated = file.getClasses()[0];
+        generate(regenerated, BuilderGenerator.detectOptions(
+            BuilderGenerator.findBuilderClass(regenerated)));
+
+        assertThat(BuilderGenerator.isBuilderStale(regenerated)).isFalse();
+        assertThat(file.getContainingDirectory().getFiles()).hasSize(2);
+    }
+
+    public void testRegenerationFindsSiblingInGeneratedSourcesRoot() {
+        var file = (PsiJavaFile) myFixture.addFileToProject("com/example/Point.java", """
+            package com.example;
+
+            public record Point(int x) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        var options = builderOptions().siblingFile(true).generatedSourcesRoot("generated").build();
+        PropertiesComponent.getInstance(getProject()).setValue(GENERATED_SOURCES_ROOT_KEY, "generated");
+        try {
+            generate(recordClass, options);
+
+            var generatedDirectory = file.getContainingDirectory().getParentDirectory()
+                .getParentDirectory().findSubdirectory("generated")
+                .findSubdirectory("com").findSubdirectory("example");
+            var builderClass = BuilderGenerator.findBuilderClass(recordClass);
+            assertThat(builderClass).isNotNull();
+            assertThat(builderClass.getContainingFile().getContainingDirectory())
+                .isEqualTo(generatedDirectory);
+
+            WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+                recordClass.getRecordHeader().replace(
+                    JavaPsiFacade.getElementFactory(getProject())
+                        .createRecordHeaderFromText("int x, int y", recordClass));
+            });
+            generate(file.getClasses()[0], options);
+
+            assertThat(generatedDirectory.getFiles()).hasSize(1);
+            assertThat(generatedDirectory.getFiles()[0].getText())
+                .contains("return new Point(this.x, this.y);");
+        }
+        finally {
+            PropertiesComponent.getInstance(getProject()).unsetValue(GENERATED_SOURCES_ROOT_KEY);
+        }
+    }
+
+    public void testNestedRecordIsImported() {
+        var file = (PsiJavaFile) myFixture.addFileToProject("com/example/Shapes.java", """
+            package com.example;
+
+            public class Shapes {
+                public record Point(int x, int y) { }
+            }
+            """);
+        var recordClass = file.getClasses()[0].getInnerClasses()[0];
+
+        generate(recordClass, SIBLING);
+
+        var siblingFile = (PsiJavaFile) file.getContainingDirectory()
+            .findFile("ShapesPointBuilder.java");
+        assertThat(siblingFile).isNotNull();
+        assertThat(siblingFile.getText()).contains("import com.example.Shapes.Point;");
+        assertThat(BuilderGenerator.findBuilderClass(recordClass)).isNotNull();
+    }
+
+    public void testSwitchingLayoutsExplicitlyRemovesTheOther() {
+        var file = (PsiJavaFile) myFixture.addFileToProject("com/example/Point.java", """
+            package com.example;
+
+            public record Point(int x, int y) { }
+            """);
+        var recordClass = file.getClasses()[0];
+
+        generate(recordClass, BuilderOptions.defaults());
+        assertThat(recordClass.findInnerClassByName("Builder", false)).isNotNull();
+
+        // what BuilderAction does when the checkbox changed
+        switchLayout(recordClass, SIBLING);
+        assertThat(recordClass.findInnerClassByName("Builder", false)).isNull();
+        assertThat(file.getContainingDirectory().findFile("PointBuilder.java")).isNotNull();
+
+        switchLayout(recordClass, BuilderOptions.defaults());
+        assertThat(recordClass.findInnerClassByName("Builder", false)).isNotNull();
+        assertThat(file.getContainingDirectory().findFile("PointBuilder.java")).isNull();
+    }
+
+    public void testNestedGenerationKeepsHandWrittenSibling() {
+        var builderFile = (PsiJavaFile) myFixture.addFileToProject("com/example/PointBuilder.java", """
+            package com.example;
+
+            public class PointBuilder {
+                private int x;
+                public static PointBuilder point() { return new PointBuilder(); }
+                public PointBuilder x(int x) { this.x = x; return this; }
+                public Point build() { return new Point(x, 0); }
+            }
+            """);
+        var file = (PsiJavaFile) myFixture.addFileToProject("com/example/Point.java", """
+            package com.example;
+
+            public record Point(int x, int y) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        var builderText = builderFile.getText();
+
+        generate(recordClass, BuilderOptions.defaults());
+
+        assertThat(recordClass.findInnerClassByName("Builder", false)).isNotNull();
+        assertThat(builderFile.isValid()).isTrue();
+        assertThat(builderFile.getText()).isEqualTo(builderText);
+    }
+
+    private void switchLayout(PsiClass recordClass, BuilderOptions options) {
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.removeBuilderClasses(recordClass);
+            BuilderGenerator.generateBuilderPattern(
+                recordClass, mapRecordComponentNames(recordClass), options);
+        });
+    }
+
+    private void generate(PsiClass recordClass, BuilderOptions options) {
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass, mapRecordComponentNames(recordClass), options);
+        });
+    }
+
+}
@@ -0,0 +1,185 @@
+package fruitfly.psi;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiJavaFile;
+import fruitfly.test.FruitflyTestCase;
+
+import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
+import static fruitfly.psi.BuilderOptions.builderOptions;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Covers the detection that builder sync uses to decide what to regenerate.
+ */
+public class StaleBuilderTest extends FruitflyTestCase {
+
+    public void testFreshBuilderIsNotStale() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x, int y) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(recordClass);
+        });
+
+        assertThat(BuilderGenerator.findBuilderClass(recordClass)).isNotNull();
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isFalse();
+    }
+
+    public void testSubsetBuilderIsNotStale() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x, int y) {
+                public static final class Builder {
+                    private int x;
+                    public static Builder point() { return new Builder(); }
+                    public Builder x(int x) { this.x = x; return this; }
+                    public Point build() { return new Point(this.x, 0); }
+                }
+            }
+            """);
+
+        var recordClass = file.getClasses()[0];
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isFalse();
+        assertThat(BuilderGenerator.mapBuilderComponentNames(
+            recordClass, BuilderGenerator.findBuilderClass(recordClass)))
+            .containsExactly("x");
+    }
+
+    public void testAddedComponentIsStale() {
+        var recordClass = generateAndChangeHeader("int x, int y", "int x, int y, int z");
+
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isTrue();
+        assertThat(BuilderGenerator.mapBuilderComponentNames(
+            recordClass, BuilderGenerator.findBuilderClass(recordClass)))
+            .containsExactly("x", "y", "z");
+    }
+
+    public void testRenamedComponentIsStale() {
+        var recordClass = generateAndChangeHeader("int x, int y", "int x, int z");
+
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isTrue();
+        assertThat(BuilderGenerator.mapBuilderComponentNames(
+            recordClass, BuilderGenerator.findBuilderClass(recordClass)))
+            .containsExactly("x", "z");
+
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                BuilderGenerator.mapBuilderComponentNames(
+                    recordClass, BuilderGenerator.findBuilderClass(recordClass)),
+                BuilderOptions.defaults());
+        });
+        var builderClass = BuilderGenerator.findBuilderClass(recordClass);
+        assertThat(builderClass.findMethodsByName("z", false)).hasSize(1);
+        assertThat(builderClass.findMethodsByName("build", false)[0].getText())
+            .contains("return new Point(this.x, this.z);");
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isFalse();
+    }
+
+    public void testSubsetBuilderWithOwnConstructorIsNotStale() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x, int y, int z) {
+                public Point(int x) { this(x, 0, 0); }
+
+                public static final class Builder {
+                    private int x;
+                    public static Builder point() { return new Builder(); }
+                    public Builder x(int x) { this.x = x; return this; }
+                    public Point build() { return new Point(this.x); }
+                }
+            }
+            """);
+
+        var recordClass = file.getClasses()[0];
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isFalse();
+        assertThat(BuilderGenerator.mapBuilderComponentNames(
+            recordClass, BuilderGenerator.findBuilderClass(recordClass)))
+            .containsExactly("x");
+    }
+
+    public void testRemovedComponentIsStale() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x) {
+                public static final class Builder {
+                    private int x;
+                    private int y;
+                    public static Builder point() { return new Builder(); }
+                    public Builder x(int x) { this.x = x; return this; }
+                    public Builder y(int y) { this.y = y; return this; }
+                    public Point build() { return new Point(this.x); }
+                }
+            }
+            """);
+
+        var recordClass = file.getClasses()[0];
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isTrue();
+        assertThat(BuilderGenerator.mapBuilderComponentNames(
+            recordClass, BuilderGenerator.findBuilderClass(recordClass)))
+            .containsExactly("x");
+    }
+
+    public void testChangedTypeIsStale() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(long x) {
+                public static final class Builder {
+                    private int x;
+                    public static Builder point() { return new Builder(); }
+                    public Builder x(int x) { this.x = x; return this; }
+                    public Point build() { return new Point(this.x); }
+                }
+            }
+            """);
+
+        assertThat(BuilderGenerator.isBuilderStale(file.getClasses()[0])).isTrue();
+    }
+
+    public void testHandWrittenBuilderIsIgnored() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x, int y) {
+                public static final class Builder {
+                    private int x;
+                }
+            }
+            """);
+
+        var recordClass = file.getClasses()[0];
+        assertThat(BuilderGenerator.findBuilderClass(recordClass)).isNull();
+        assertThat(BuilderGenerator.isBuilderStale(recordClass)).isFalse();
+    }
+
+    public void testOptionsAreDetected() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java", """
+            public record Point(int x, int y) { }
+            """);
+        var recordClass = file.getClasses()[0];
+        var options = builderOptions().canonical(true).build();
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass, mapRecordComponentNames(recordClass), options);
+        });
+
+        var builderClass = BuilderGenerator.findBuilderClass(recordClass);
+        assertThat(builderClass).isNotNull();
+        assertThat(BuilderGenerator.detectOptions(builderClass)).isEqualTo(options);
+    }
+
+    private PsiClass generateAndChangeHeader(String header, String changedHeader) {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java",
+            "public record Point(" + header + ") { }");
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(file.getClasses()[0]);
+        });
+        assertThat(BuilderGenerator.isBuilderStale(file.getClasses()[0])).isFalse();
+
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            var recordClass = file.getClasses()[0];
+            recordClass.getRecordHeader().replace(
+                JavaPsiFacade.getElementFactory(getProject())
+                    .createRecordHeaderFromText(changedHeader, recordClass));
+        });
+        return file.getClasses()[0];
+    }
+
+}
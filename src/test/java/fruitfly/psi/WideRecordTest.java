@@ -0,0 +1,108 @@
+package fruitfly.psi;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import fruitfly.test.FruitflyTestCase;
+
+import java.util.StringJoiner;
+
+import static fruitfly.ide.ClassMemberChooser.mapRecordComponentNames;
+import static fruitfly.psi.BuilderOptions.builderOptions;
+import static fruitfly.psi.BytecodeEstimator.FREQ_INLINE_SIZE;
+import static fruitfly.psi.BytecodeEstimator.HUGE_METHOD_LIMIT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Records with hundreds of components must not produce methods that
+ * HotSpot refuses to JIT-compile.
+ */
+public class WideRecordTest extends FruitflyTestCase {
+
+    private static final int COMPONENT_COUNT = 250;
+
+    /**
+     * Every helper {@link BuilderGenerator#splitStatements} can produce.
+     */
+    private static final String HELPER_NAMES =
+        "(applyDefaults|countNonDefaultComponents|(allocate|store|grow|release)Columns|" +
+            "writeComponents|copyComponents)\\d+";
+
+    public void testWideRecordMethodsStayUnderLimit() {
+        myFixture.addClass("""
+            package config;
+            public @interface Default { String value(); }
+            """);
+        var components = new StringJoiner(", ");
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            components.add((i % 10 == 0 ? "@Default(\"" + i + "\") " : "") +
+                (i % 2 == 0 ? "int" : "String") + " c" + i);
+        }
+        var file = (PsiJavaFile) myFixture.configureByText("Wide.java",
+            "import config.Default;\n\npublic record Wide(" + components + ") { }");
+
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions()
+                    .canonical(true)
+                    .batch(true)
+                    .codec(true)
+                    .jfr(true)
+                    .build());
+        });
+
+        var builderClass = BuilderGenerator.findBuilderClass(recordClass);
+        assertThat(builderClass).isNotNull();
+
+        // the builder and everything it added to the record
+        var methods = PsiTreeUtil.findChildrenOfType(recordClass, PsiMethod.class);
+        assertThat(methods).isNotEmpty();
+        for (var method : methods) {
+            assertThat(BytecodeEstimator.estimate(method))
+                .as(describe(method))
+                .isLessThan(HUGE_METHOD_LIMIT);
+        }
+
+        // the per-component work really was split, into inlinable helpers
+        var batchClass = builderClass.findInnerClassByName("Batch", false);
+        assertThat(batchClass).isNotNull();
+        assertThat(batchClass.findMethodsByName("storeColumns1", false)).hasSize(1);
+        assertThat(methods)
+            .extracting(PsiMethod::getName)
+            .contains("countNonDefaultComponents1", "writeComponents1");
+        for (var method : methods) {
+            if (method.getName().matches(HELPER_NAMES)) {
+                assertThat(BytecodeEstimator.estimate(method))
+                    .as(describe(method))
+                    .isLessThanOrEqualTo(FREQ_INLINE_SIZE);
+            }
+        }
+    }
+
+    public void testNarrowRecordIsNotSplit() {
+        var file = (PsiJavaFile) myFixture.configureByText("Point.java",
+            "public record Point(int x, int y) { }");
+
+        var recordClass = file.getClasses()[0];
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            BuilderGenerator.generateBuilderPattern(
+                recordClass,
+                mapRecordComponentNames(recordClass),
+                builderOptions().batch(true).build());
+        });
+
+        assertThat(file.getText()).doesNotContain("storeColumns0");
+    }
+
+    private static String describe(PsiMethod method) {
+        final PsiClass containingClass = method.getContainingClass();
+        return (containingClass == null ? "" : containingClass.getName() + ".") +
+            method.getName();
+    }
+
+}
@@ -7,6 +7,17 @@ import com.intellij.testFramework.LightProjectDescriptor;
 import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
 import org.jetbrains.annotations.NotNull;
 
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public abstract class FruitflyTestCase extends LightJavaCodeInsightFixtureTestCase {
@@ -64,4 +75,37 @@ public abstract class FruitflyTestCase extends LightJavaCodeInsightFixtureTestCa
         return myFixture.configureByFile(filename);
     }
 
+    /**
+     * Compiles generated sources with the JDK running the tests, for tests
+     * that run the generated code rather than just look at it.
+     *
+     * @param sources file name -> source text, all in the default package
+     *                unless the text says otherwise
+     */
+    public ClassLoader compile(Map<String, String> sources) throws IOException {
+        var compiler = ToolProvider.getSystemJavaCompiler();
+        assertThat(compiler).as("tests need to run on a JDK").isNotNull();
+
+        var sourceDirectory = Files.createTempDirectory("fruitfly-compile");
+        var sourceFiles = new ArrayList<Path>();
+        for (var source : sources.entrySet()) {
+            var sourceFile = sourceDirectory.resolve(source.getKey());
+            Files.writeString(sourceFile, source.getValue(), UTF_8);
+            sourceFiles.add(sourceFile);
+        }
+
+        var classDirectory = Files.createDirectories(sourceDirectory.resolve("classes"));
+        var fileManager = compiler.getStandardFileManager(null, null, UTF_8);
+        var compiled = compiler.getTask(
+            null, fileManager, null,
+            List.of("-d", classDirectory.toString(), "-encoding", "UTF-8"),
+            null,
+            fileManager.getJavaFileObjectsFromPaths(sourceFiles)).call();
+        assertThat(compiled).as("generated code compiles").isTrue();
+
+        return new URLClassLoader(
+            new URL[]{classDirectory.toUri().toURL()},
+            getClass().getClassLoader());
+    }
+
 }
@@ -0,0 +1,7 @@
+package fruitfly.psi.canonical_record;
+
+public record CanonicalRecordTestInput(
+    String country,
+    String status,
+    String postcode
+) { }
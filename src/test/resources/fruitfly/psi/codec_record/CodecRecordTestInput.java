@@ -0,0 +1,5 @@
+package fruitfly.psi.codec_record;
+
+public record CodecRecordTestInput(String name, int age, Status status) {
+    public enum Status { ACTIVE, RETIRED }
+}